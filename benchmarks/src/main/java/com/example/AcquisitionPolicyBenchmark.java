@@ -0,0 +1,73 @@
+package com.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.example.impl.RefCountingEntityLocker;
+import com.example.impl.SimpleEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput and latency of short critical sections on a few hot entities with threads parking right away
+ * or spinning first. Thread count is set from the command line ({@code -t}) or by {@link BenchmarkRunner},
+ * spinning only pays off when there are more cores than one.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AcquisitionPolicyBenchmark {
+    private static final Long[] IDS = {1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L, 14L, 15L, 16L};
+
+    @Param({"SIMPLE", "REF_COUNTING"})
+    public LockerType implementation;
+
+    @Param({"PARK", "SPIN_THEN_PARK"})
+    public AcquisitionPolicy policy;
+
+    /**
+     * Number of hot entities, up to 16.
+     */
+    @Param({"1", "16"})
+    public int entities;
+
+    /**
+     * Length of critical section in {@link Blackhole#consumeCPU(long)} tokens.
+     */
+    @Param({"10", "100", "1000"})
+    public int criticalSection;
+
+    private EntityLocker<Long> locker;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = implementation == LockerType.REF_COUNTING
+            ? new RefCountingEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, policy)
+            : new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, policy);
+    }
+
+    @Benchmark
+    public AcquisitionPolicyBenchmark executeWithLock() throws Exception {
+        Long id = IDS[ThreadLocalRandom.current().nextInt(entities)];
+        return locker.executeWithLock(id, this, AcquisitionPolicyBenchmark::consume);
+    }
+
+    private static AcquisitionPolicyBenchmark consume(AcquisitionPolicyBenchmark state) {
+        Blackhole.consumeCPU(state.criticalSection);
+        return state;
+    }
+}
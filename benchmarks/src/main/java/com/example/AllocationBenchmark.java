@@ -0,0 +1,75 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Uncontended locking through the different entry points of {@link EntityLocker}, meant to be run with
+ * {@code -prof gc}: every entry point except the capturing {@link java.util.concurrent.Callable} one
+ * should show zero {@code gc.alloc.rate.norm} for lockers that reuse their locks.
+ * {@link AllocationCheck} runs it and fails when they do not.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+    private static final Function<long[], long[]> INCREMENT = counter -> {
+        counter[0]++;
+        return counter;
+    };
+    private static final BiConsumer<long[], long[]> ADD = (counter, delta) -> counter[0] += delta[0];
+
+    @Param({"SIMPLE"})
+    public LockerType implementation;
+
+    private EntityLocker<Long> locker;
+    private final Long id = 1_000_000L;
+    private final long[] counter = new long[1];
+    private final long[] delta = {2};
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = implementation.create(32);
+    }
+
+    @Benchmark
+    public long capturingCallable() throws Exception {
+        return locker.executeWithLock(id, () -> counter[0]++);
+    }
+
+    @Benchmark
+    public long[] function() throws Exception {
+        return locker.executeWithLock(id, counter, INCREMENT);
+    }
+
+    @Benchmark
+    public long[] biConsumer() throws Exception {
+        locker.executeWithLock(id, counter, delta, ADD);
+        return counter;
+    }
+
+    @Benchmark
+    public long[] handle() throws Exception {
+        try (LockHandle ignored = locker.acquire(id)) {
+            counter[0]++;
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link AllocationBenchmark} with the GC profiler and exits with non-zero status if an
+ * allocation free entry point allocates.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.example.AllocationCheck}
+ */
+public final class AllocationCheck {
+    /**
+     * Bytes per operation tolerated for profiler noise.
+     */
+    private static final double MAX_BYTES_PER_OP = 0.5;
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    private AllocationCheck() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(AllocationBenchmark.class.getSimpleName() + "\\.(function|biConsumer|handle)$")
+            .addProfiler(GCProfiler.class)
+            .build();
+        Collection<RunResult> results = new Runner(options).run();
+        boolean failed = false;
+        for (RunResult result : results) {
+            Result<?> allocation = result.getSecondaryResults().get(ALLOCATION_METRIC);
+            String benchmark = result.getParams().getBenchmark();
+            if (allocation == null) {
+                System.out.println("no allocation data for " + benchmark);
+                failed = true;
+            } else if (allocation.getScore() > MAX_BYTES_PER_OP) {
+                System.out.printf("%s allocates %.2f B/op%n", benchmark, allocation.getScore());
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+        System.out.println("all allocation free entry points allocate nothing");
+    }
+}
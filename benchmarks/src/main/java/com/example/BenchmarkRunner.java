@@ -0,0 +1,59 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks for every thread count from 1 up to twice the number of available processors
+ * with allocation profiling enabled. Results of each thread count are written as JSON.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.example.BenchmarkRunner [benchmark regexp] [results prefix]}
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : EntityLockerBenchmark.class.getSimpleName();
+        String resultPrefix = args.length > 1 ? args[1] : "jmh-result";
+        for (int threads : threadCounts(Runtime.getRuntime().availableProcessors())) {
+            Options options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultPrefix + "-t" + threads + ".json")
+                .build();
+            Collection<RunResult> results = new Runner(options).run();
+            System.out.printf("%d thread(s): %d benchmark(s) done%n", threads, results.size());
+        }
+    }
+
+    /**
+     * Powers of two from 1 to {@code 2 * cores}, with {@code cores} and {@code 2 * cores} always included.
+     */
+    static List<Integer> threadCounts(int cores) {
+        List<Integer> result = new ArrayList<>();
+        for (int threads = 1; threads < 2 * cores; threads *= 2) {
+            if (threads > cores && !result.contains(cores)) {
+                result.add(cores);
+            }
+            result.add(threads);
+        }
+        if (!result.contains(cores)) {
+            result.add(cores);
+        }
+        result.add(2 * cores);
+        return result;
+    }
+}
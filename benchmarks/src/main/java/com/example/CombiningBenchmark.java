@@ -0,0 +1,63 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Short critical sections on a single hot entity executed with lock handoff between threads
+ * or in combining mode. Thread count is set from the command line ({@code -t}) or by {@link BenchmarkRunner}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombiningBenchmark {
+    private static final Long ID = 1_000_000L;
+
+    @Param({"SIMPLE", "REF_COUNTING"})
+    public LockerType implementation;
+
+    /**
+     * Length of critical section in {@link Blackhole#consumeCPU(long)} tokens.
+     */
+    @Param({"0", "50"})
+    public int criticalSection;
+
+    private EntityLocker<Long> locker;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = implementation.create(32);
+    }
+
+    @Benchmark
+    public Long handoff() throws Exception {
+        return locker.executeWithLock(ID, this::increment);
+    }
+
+    @Benchmark
+    public Long combined() throws Exception {
+        return locker.executeCombined(ID, this::increment);
+    }
+
+    private Long increment() {
+        Blackhole.consumeCPU(criticalSection);
+        return ++counter;
+    }
+}
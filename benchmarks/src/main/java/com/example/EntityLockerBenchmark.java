@@ -0,0 +1,98 @@
+package com.example;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link EntityLocker#executeWithLock(Object, Callable)} for different implementations,
+ * key distributions, key space sizes and critical section lengths.
+ * Thread count is set from the command line ({@code -t}) or by {@link BenchmarkRunner}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityLockerBenchmark {
+    /**
+     * Length of the per thread key sequence, power of two.
+     */
+    static final int KEY_SEQUENCE_LENGTH = 1 << 16;
+
+    @Param({"SIMPLE", "SIMPLE_RECLAIMING", "STRIPING", "REF_COUNTING"})
+    public LockerType implementation;
+
+    @Param({"HOT", "UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"1024", "1048576"})
+    public int keySpace;
+
+    /**
+     * Length of critical section in {@link Blackhole#consumeCPU(long)} tokens.
+     */
+    @Param({"0", "100"})
+    public int criticalSection;
+
+    @Param({"32"})
+    public int stripes;
+
+    EntityLocker<Long> locker;
+
+    private final AtomicLong seeds = new AtomicLong(42);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = implementation.create(stripes);
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private Long[] keys;
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(EntityLockerBenchmark benchmark) {
+            long[] sample = benchmark.distribution.sample(benchmark.keySpace, KEY_SEQUENCE_LENGTH,
+                benchmark.seeds.getAndIncrement());
+            // boxed upfront, so boxing of ids is not a part of measurement
+            keys = new Long[sample.length];
+            for (int i = 0; i < sample.length; i++) {
+                keys[i] = sample[i];
+            }
+        }
+
+        Long next() {
+            Long key = keys[position];
+            position = (position + 1) & (KEY_SEQUENCE_LENGTH - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public Long executeWithLock(Keys keys) throws ExecutionException, TimeoutException {
+        Long id = keys.next();
+        int tokens = criticalSection;
+        return locker.executeWithLock(id, () -> {
+            Blackhole.consumeCPU(tokens);
+            return id;
+        });
+    }
+}
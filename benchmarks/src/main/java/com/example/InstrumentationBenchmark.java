@@ -0,0 +1,105 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.impl.AbstractEntityLocker;
+import com.example.impl.InstrumentedEntityLocker;
+import com.example.impl.LockMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Overhead of contention metrics: plain locker, locker instrumented with a listener doing nothing
+ * (cost of the instrumentation itself) and locker instrumented with {@link LockMetrics}.
+ * Thread count is set from the command line ({@code -t}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstrumentationBenchmark {
+
+    public enum Instrumentation {
+        NONE,
+        NOOP_LISTENER,
+        METRICS
+    }
+
+    @Param({"SIMPLE", "STRIPING"})
+    public LockerType implementation;
+
+    @Param({"NONE", "NOOP_LISTENER", "METRICS"})
+    public Instrumentation instrumentation;
+
+    @Param({"HOT", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"0", "100"})
+    public int criticalSection;
+
+    EntityLocker<Long> locker;
+
+    private final AtomicLong seeds = new AtomicLong(42);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AbstractEntityLocker<Long> plain = (AbstractEntityLocker<Long>) implementation.<Long>create(32);
+        switch (instrumentation) {
+            case NOOP_LISTENER:
+                locker = new InstrumentedEntityLocker<>(plain, new EntityLockListener<Long>() {
+                });
+                break;
+            case METRICS:
+                locker = new InstrumentedEntityLocker<>(plain, new LockMetrics<>());
+                break;
+            default:
+                locker = plain;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private Long[] keys;
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(InstrumentationBenchmark benchmark) {
+            long[] sample = benchmark.distribution.sample(1024, EntityLockerBenchmark.KEY_SEQUENCE_LENGTH,
+                benchmark.seeds.getAndIncrement());
+            keys = new Long[sample.length];
+            for (int i = 0; i < sample.length; i++) {
+                keys[i] = sample[i];
+            }
+        }
+
+        Long next() {
+            Long key = keys[position];
+            position = (position + 1) & (EntityLockerBenchmark.KEY_SEQUENCE_LENGTH - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public Integer executeWithLock(Keys keys) throws Exception {
+        return locker.executeWithLock(keys.next(), criticalSection, InstrumentationBenchmark::consume);
+    }
+
+    private static Integer consume(Integer tokens) {
+        Blackhole.consumeCPU(tokens);
+        return tokens;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example;
+
+import java.util.Random;
+
+/**
+ * How benchmark threads pick entity ids out of the key space.
+ */
+public enum KeyDistribution {
+    /**
+     * Every operation goes to the same entity.
+     */
+    HOT {
+        @Override
+        public long[] sample(int keySpace, int count, long seed) {
+            return new long[count];
+        }
+    },
+    UNIFORM {
+        @Override
+        public long[] sample(int keySpace, int count, long seed) {
+            Random random = new Random(seed);
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = random.nextInt(keySpace);
+            }
+            return keys;
+        }
+    },
+    ZIPFIAN {
+        @Override
+        public long[] sample(int keySpace, int count, long seed) {
+            ZipfianGenerator generator = new ZipfianGenerator(keySpace, seed);
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = generator.next();
+            }
+            return keys;
+        }
+    };
+
+    /**
+     * Generate sequence of keys.
+     *
+     * @param keySpace number of distinct entities
+     * @param count sequence length
+     * @param seed random seed
+     * @return keys in range [0, keySpace)
+     */
+    public abstract long[] sample(int keySpace, int count, long seed);
+}
@@ -0,0 +1,48 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+
+import com.example.impl.RefCountingEntityLocker;
+import com.example.impl.SimpleEntityLocker;
+import com.example.impl.StripingEntityLocker;
+
+/**
+ * {@link EntityLocker} implementations available to the benchmarks.
+ */
+public enum LockerType {
+    SIMPLE {
+        @Override
+        public <T> EntityLocker<T> create(int stripes) {
+            return new SimpleEntityLocker<>();
+        }
+    },
+    SIMPLE_RECLAIMING {
+        @Override
+        public <T> EntityLocker<T> create(int stripes) {
+            return new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, MAX_LIVE_LOCKS);
+        }
+    },
+    STRIPING {
+        @Override
+        public <T> EntityLocker<T> create(int stripes) {
+            return new StripingEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, stripes);
+        }
+    },
+    REF_COUNTING {
+        @Override
+        public <T> EntityLocker<T> create(int stripes) {
+            return new RefCountingEntityLocker<>();
+        }
+    };
+
+    static final int MAX_LIVE_LOCKS = 1 << 16;
+
+    /**
+     * Create new locker instance.
+     *
+     * @param stripes number of stripes for implementations that use striping, ignored by others
+     * @param <T> entity id type
+     * @return new locker
+     */
+    public abstract <T> EntityLocker<T> create(int stripes);
+}
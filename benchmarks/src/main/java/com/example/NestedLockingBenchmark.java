@@ -0,0 +1,54 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of nested locking of an entity the thread already holds, as domain code calling locked code does:
+ * {@code depth} nested calls against a single call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NestedLockingBenchmark {
+
+    @Param({"SIMPLE", "STRIPING", "REF_COUNTING"})
+    public LockerType implementation;
+
+    @Param({"1", "4"})
+    public int depth;
+
+    private EntityLocker<NestedLockingBenchmark> locker;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = implementation.create(32);
+    }
+
+    @Benchmark
+    public int executeNested() throws Exception {
+        return nested(depth);
+    }
+
+    private int nested(int level) throws Exception {
+        if (level == 0) {
+            return 0;
+        }
+        return locker.executeWithLock(this, () -> nested(level - 1) + 1);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.impl.LongEntityLocker;
+import com.example.impl.RefCountingEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Locking of primitive long ids with {@link LongEntityLocker} compared to boxing lockers,
+ * ids are boxed on every call as callers holding {@code long} keys do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimitiveKeyBenchmark {
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"1048576"})
+    public int keySpace;
+
+    LongEntityLocker longLocker;
+    EntityLocker<Long> simpleLocker;
+    EntityLocker<Long> refCountingLocker;
+
+    private final AtomicLong seeds = new AtomicLong(42);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        longLocker = new LongEntityLocker();
+        simpleLocker = LockerType.SIMPLE.create(0);
+        refCountingLocker = new RefCountingEntityLocker<>();
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private long[] keys;
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(PrimitiveKeyBenchmark benchmark) {
+            keys = benchmark.distribution.sample(benchmark.keySpace, EntityLockerBenchmark.KEY_SEQUENCE_LENGTH,
+                benchmark.seeds.getAndIncrement());
+        }
+
+        long next() {
+            long key = keys[position];
+            position = (position + 1) & (EntityLockerBenchmark.KEY_SEQUENCE_LENGTH - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public long longLocker(Keys keys) throws ExecutionException, TimeoutException {
+        long id = keys.next();
+        return longLocker.executeWithLock(id, () -> id);
+    }
+
+    @Benchmark
+    public long simpleLocker(Keys keys) throws ExecutionException, TimeoutException {
+        long id = keys.next();
+        return simpleLocker.executeWithLock(id, () -> id);
+    }
+
+    @Benchmark
+    public long refCountingLocker(Keys keys) throws ExecutionException, TimeoutException {
+        long id = keys.next();
+        return refCountingLocker.executeWithLock(id, () -> id);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read mostly access to a single hot entity with reads done under exclusive lock, shared lock
+ * or optimistically. Thread count is set from the command line ({@code -t}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadWriteBenchmark {
+    private static final Long ID = 1_000_000L;
+
+    public enum ReadMode {
+        EXCLUSIVE,
+        READ_LOCK,
+        OPTIMISTIC
+    }
+
+    @Param({"SIMPLE", "STRIPING"})
+    public LockerType implementation;
+
+    @Param({"EXCLUSIVE", "READ_LOCK", "OPTIMISTIC"})
+    public ReadMode readMode;
+
+    @Param({"90", "99"})
+    public int readPercent;
+
+    private EntityLocker<Long> locker;
+    private long first;
+    private long second;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = implementation.create(32);
+    }
+
+    @Benchmark
+    public long access() throws Exception {
+        if (ThreadLocalRandom.current().nextInt(100) >= readPercent) {
+            return locker.executeWithLock(ID, this, ReadWriteBenchmark::write);
+        }
+        switch (readMode) {
+            case READ_LOCK:
+                return locker.executeWithReadLock(ID, this::read);
+            case OPTIMISTIC:
+                return locker.executeWithOptimisticRead(ID, this::read);
+            default:
+                return locker.executeWithLock(ID, this::read);
+        }
+    }
+
+    private static long write(ReadWriteBenchmark state) {
+        state.first++;
+        state.second--;
+        return state.first;
+    }
+
+    private long read() {
+        return first + second;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.example.impl.LockServer;
+import com.example.impl.RemoteEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lock and unlock round trips to an in-process {@link LockServer} over loopback: threads sharing one pipelined
+ * connection against a connection per thread. Run with several threads through {@link BenchmarkRunner}
+ * to see requests of concurrent threads batched into shared writes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemoteLockingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"true", "false"})
+        public boolean sharedConnection;
+
+        @Param({"1024"})
+        public int keys;
+
+        LockServer server;
+        RemoteEntityLocker<Integer> locker;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            server = new LockServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10, TimeUnit.SECONDS);
+            locker = new RemoteEntityLocker<>(server.getAddress());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            locker.close();
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        RemoteEntityLocker<Integer> locker;
+        private RemoteEntityLocker<Integer> own;
+
+        @Setup(Level.Trial)
+        public void setUp(Server server) throws IOException {
+            if (server.sharedConnection) {
+                locker = server.locker;
+            } else {
+                own = new RemoteEntityLocker<>(server.server.getAddress());
+                locker = own;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            if (own != null) {
+                own.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public int lock(Server server, Client client) throws Exception {
+        int id = ThreadLocalRandom.current().nextInt(server.keys);
+        return client.locker.executeWithLock(id, () -> id);
+    }
+}
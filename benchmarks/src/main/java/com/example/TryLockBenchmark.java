@@ -0,0 +1,83 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Zero timeout locking of a hot entity held most of the time by another thread:
+ * failed attempts reported with {@link TimeoutException} compared to
+ * {@link EntityLocker#tryExecuteWithLock(Object, Runnable, long, TimeUnit)}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class TryLockBenchmark {
+    private static final Long ID = 1_000_000L;
+    private static final Runnable NOTHING = () -> {};
+
+    @Param({"SIMPLE", "STRIPING"})
+    public LockerType implementation;
+
+    private EntityLocker<Long> locker;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = implementation.create(32);
+    }
+
+    @Benchmark
+    @Group("exception")
+    @GroupThreads(1)
+    public void exceptionHolder() throws Exception {
+        hold();
+    }
+
+    @Benchmark
+    @Group("exception")
+    @GroupThreads(1)
+    public boolean exceptionAttempt() throws ExecutionException {
+        try {
+            locker.executeWithLock(ID, NOTHING, 0, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Group("tryLock")
+    @GroupThreads(1)
+    public void tryLockHolder() throws Exception {
+        hold();
+    }
+
+    @Benchmark
+    @Group("tryLock")
+    @GroupThreads(1)
+    public boolean tryLockAttempt() throws ExecutionException {
+        return locker.tryExecuteWithLock(ID, NOTHING, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private void hold() throws Exception {
+        locker.executeWithLock(ID, () -> Blackhole.consumeCPU(1000));
+    }
+}
@@ -0,0 +1,17 @@
+package com.example;
+
+/**
+ * How a locker waits for a busy entity lock.
+ */
+public enum AcquisitionPolicy {
+    /**
+     * Queue and park the thread right away. Suits critical sections that are long compared to a context switch.
+     */
+    PARK,
+    /**
+     * Spin for a while before parking, with the spin budget adapted per entity: it grows while spinning
+     * succeeds, i.e. the lock is held briefly, and shrinks when it doesn't. Suits critical sections of
+     * a few microseconds or less. Spinning is skipped on single processor machines and for virtual threads.
+     */
+    SPIN_THEN_PARK
+}
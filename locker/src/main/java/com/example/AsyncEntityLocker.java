@@ -0,0 +1,41 @@
+package com.example;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locker which doesn't block calling threads: protected code is queued per entity and
+ * executed on the given executor once the entity is free.
+ */
+public interface AsyncEntityLocker<T> {
+
+    /**
+     * Execute given protected code on entity when it is free.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param executor executor to run protected code on
+     * @param <R> result type
+     * @return future completed with result of protected code execution, or exceptionally with
+     * {@link ExecutionException} if some error during execution occurs, or with {@link java.util.concurrent.TimeoutException}
+     * if entity didn't become free in time amount specified by implementation
+     */
+    <R> CompletableFuture<R> executeWithLockAsync(T id, Callable<R> protectedCode, Executor executor);
+
+    /**
+     * Execute given protected code on entity when it is free with specified timeout.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param executor executor to run protected code on
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <R> result type
+     * @return future completed with result of protected code execution, or exceptionally with
+     * {@link ExecutionException} if some error during execution occurs, or with {@link java.util.concurrent.TimeoutException}
+     * if entity didn't become free in time
+     */
+    <R> CompletableFuture<R> executeWithLockAsync(T id, Callable<R> protectedCode, Executor executor, long timeAmount, TimeUnit timeUnit);
+}
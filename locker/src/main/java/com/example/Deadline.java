@@ -0,0 +1,95 @@
+package com.example;
+
+import static com.example.LockerUtil.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a whole request has to get its entity locks, as opposed to a timeout of a single call.
+ * <p>
+ * A deadline {@link #enter() entered} by a thread bounds every lock acquisition of the thread until the scope
+ * is closed, whichever locker and timeout it uses, so entities locked by protected code consume the remaining
+ * budget of the outer call. Once the deadline has passed, locking fails at once without waiting.
+ * Nested scopes can only shorten the deadline. The scope doesn't follow code to other threads.
+ * <pre>{@code
+ * try (Deadline.Scope ignored = Deadline.after(100, TimeUnit.MILLISECONDS).enter()) {
+ *     locker.executeWithLock(order, () -> locker.executeWithLock(customer, ...));
+ * }
+ * }</pre>
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+    /**
+     * Longest timeout which can't overflow differences of {@link System#nanoTime()} values.
+     */
+    private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE >> 1;
+
+    private final long nanoTime;
+
+    private Deadline(long nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return deadline given time amount from now
+     * @throws IllegalArgumentException if time amount is negative or time unit is null
+     */
+    public static Deadline after(long timeAmount, TimeUnit timeUnit) {
+        checkNotNull(timeUnit, "timeUnit");
+        if (timeAmount < 0) {
+            throw new IllegalArgumentException("time amount should be >= 0");
+        }
+        return new Deadline(System.nanoTime() + Math.min(timeUnit.toNanos(timeAmount), MAX_TIMEOUT_NANOS));
+    }
+
+    /**
+     * @return deadline of the innermost scope entered by the current thread, or null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return nanoseconds left until the deadline, zero or negative if it has passed
+     */
+    public long remainingNanos() {
+        return nanoTime - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * Bound lock acquisitions of the current thread by this deadline, or by the deadline of the enclosing scope
+     * if it is earlier.
+     *
+     * @return scope to close by the same thread, preferably with try-with-resources
+     */
+    public Scope enter() {
+        Deadline enclosing = CURRENT.get();
+        Deadline effective = enclosing != null && enclosing.nanoTime - nanoTime < 0 ? enclosing : this;
+        CURRENT.set(effective);
+        return new Scope(enclosing);
+    }
+
+    /**
+     * Scope of a deadline, restores the enclosing deadline when closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final Deadline enclosing;
+
+        private Scope(Deadline enclosing) {
+            this.enclosing = enclosing;
+        }
+
+        @Override
+        public void close() {
+            if (enclosing != null) {
+                CURRENT.set(enclosing);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+}
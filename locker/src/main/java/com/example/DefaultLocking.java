@@ -0,0 +1,125 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Default implementation of {@link EntityLocker#executeWithLocks(Collection, Callable, long, TimeUnit)}
+ * on top of nested {@code executeWithLock} calls, for lockers which don't provide their own.
+ * <p>
+ * Entities are locked in hash code order. Sets with equal hash codes can't be ordered unambiguously,
+ * they are locked holding a tie lock shared by all such lockers.
+ */
+final class DefaultLocking {
+    private static final ReentrantLock TIE_LOCK = new ReentrantLock();
+
+    private DefaultLocking() {
+    }
+
+    /**
+     * @param timed whether to bound locking by the given timeout or lock with the default timeout of the locker
+     */
+    static <T, R> R executeWithLocks(EntityLocker<T> locker, Collection<T> ids, Callable<R> protectedCode,
+                                     boolean timed, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        List<T> ordered = new ArrayList<>(new LinkedHashSet<>(ids));
+        ordered.sort(Comparator.comparingInt(Object::hashCode));
+        boolean ambiguous = false;
+        for (int i = 1; i < ordered.size(); i++) {
+            ambiguous |= ordered.get(i - 1).hashCode() == ordered.get(i).hashCode();
+        }
+        Nesting<T, R> nesting = new Nesting<>(locker, ordered, protectedCode, timed, timed ? timeUnit.toNanos(timeAmount) : 0);
+        try {
+            if (ambiguous && !lockTie(nesting)) {
+                throw new LockTimeoutException();
+            }
+            R result = nesting.lockFrom(0);
+            nesting.rethrow();
+            return result;
+        } catch (InterruptedException ex) {
+            throw new ExecutionException("Exception during execution with lock", ex, false);
+        } finally {
+            if (TIE_LOCK.isHeldByCurrentThread()) {
+                TIE_LOCK.unlock();
+            }
+        }
+    }
+
+    private static boolean lockTie(Nesting<?, ?> nesting) throws InterruptedException {
+        if (nesting.timed) {
+            return TIE_LOCK.tryLock(nesting.remaining(), TimeUnit.NANOSECONDS);
+        }
+        TIE_LOCK.lockInterruptibly();
+        return true;
+    }
+
+    /**
+     * Locks entities one inside another. Failures inside are kept rather than thrown through the enclosing
+     * calls, which would wrap them in their own {@link ExecutionException}.
+     */
+    private static final class Nesting<T, R> {
+        private final EntityLocker<T> locker;
+        private final List<T> ids;
+        private final Callable<R> protectedCode;
+        private final boolean timed;
+        private final long start = System.nanoTime();
+        private final long timeout;
+        private Exception failure;
+        private Exception lockFailure;
+
+        Nesting(EntityLocker<T> locker, List<T> ids, Callable<R> protectedCode, boolean timed, long timeout) {
+            this.locker = locker;
+            this.ids = ids;
+            this.protectedCode = protectedCode;
+            this.timed = timed;
+            this.timeout = timeout;
+        }
+
+        R lockFrom(int index) throws ExecutionException, TimeoutException {
+            if (index == ids.size()) {
+                if (TIE_LOCK.isHeldByCurrentThread()) {
+                    TIE_LOCK.unlock();
+                }
+                try {
+                    return protectedCode.call();
+                } catch (Exception ex) {
+                    failure = ex;
+                    return null;
+                }
+            }
+            Callable<R> inner = () -> {
+                try {
+                    return lockFrom(index + 1);
+                } catch (ExecutionException | TimeoutException ex) {
+                    lockFailure = ex;
+                    return null;
+                }
+            };
+            return timed
+                ? locker.executeWithLock(ids.get(index), inner, remaining(), TimeUnit.NANOSECONDS)
+                : locker.executeWithLock(ids.get(index), inner);
+        }
+
+        long remaining() {
+            return Math.max(timeout - (System.nanoTime() - start), 0);
+        }
+
+        void rethrow() throws ExecutionException, TimeoutException {
+            if (failure != null) {
+                throw new ExecutionException("Exception during execution with lock", failure, false);
+            }
+            if (lockFailure instanceof TimeoutException) {
+                throw (TimeoutException) lockFailure;
+            }
+            if (lockFailure != null) {
+                throw (ExecutionException) lockFailure;
+            }
+        }
+    }
+}
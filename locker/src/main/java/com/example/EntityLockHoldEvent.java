@@ -0,0 +1,20 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of holding an entity write lock, from the outermost locking to the final unlocking.
+ */
+@Name("com.example.EntityLockHold")
+@Label("Entity Lock Hold")
+@Category("Entity Locker")
+@Description("Entity write lock held")
+@Threshold("10 ms")
+final class EntityLockHoldEvent extends jdk.jfr.Event {
+    @Label("Entity")
+    String entity;
+}
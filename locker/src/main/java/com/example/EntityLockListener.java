@@ -0,0 +1,55 @@
+package com.example;
+
+/**
+ * Receives events of entity locking, see {@code com.example.impl.InstrumentedEntityLocker}.
+ * Callbacks are invoked on the locking thread, so they should be short and must not throw.
+ */
+public interface EntityLockListener<T> {
+
+    /**
+     * Entity lock is busy and the thread starts waiting for it.
+     * Followed by either {@link #onAcquire(Object, long)} with positive wait time, {@link #onTimeout(Object, long)}
+     * or {@link #onAbort(Object, long, Exception)}.
+     */
+    default void onWait(T id) {
+    }
+
+    /**
+     * Entity lock is acquired.
+     *
+     * @param waitNanos time spent waiting for the lock, zero if and only if lock was free
+     */
+    default void onAcquire(T id, long waitNanos) {
+    }
+
+    /**
+     * Entity lock wasn't acquired in time.
+     *
+     * @param waitNanos time spent waiting for the lock
+     */
+    default void onTimeout(T id, long waitNanos) {
+    }
+
+    /**
+     * Waiting for entity lock ended without the lock before the timeout: the thread was interrupted
+     * ({@link InterruptedException}) or the locker refused to let it wait ({@link LockRejectedException}).
+     *
+     * @param waitNanos time spent waiting for the lock
+     */
+    default void onAbort(T id, long waitNanos, Exception cause) {
+    }
+
+    /**
+     * Entity lock is released.
+     *
+     * @param holdNanos time the lock was held for
+     */
+    default void onRelease(T id, long holdNanos) {
+    }
+
+    /**
+     * Protected code failed with exception, followed by {@link #onRelease(Object, long)}.
+     */
+    default void onFailure(T id, Exception failure) {
+    }
+}
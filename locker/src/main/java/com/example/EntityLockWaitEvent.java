@@ -0,0 +1,33 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of waiting for a busy entity lock, including waits which timed out.
+ */
+@Name("com.example.EntityLockWait")
+@Label("Entity Lock Wait")
+@Category("Entity Locker")
+@Description("Waiting for a busy entity lock")
+@Threshold("10 ms")
+final class EntityLockWaitEvent extends jdk.jfr.Event {
+    @Label("Entity")
+    String entity;
+
+    @Label("Timeout")
+    @Timespan
+    long timeout;
+
+    @Label("Shared")
+    @Description("Read lock was requested")
+    boolean shared;
+
+    @Label("Acquired")
+    @Description("False if lock wasn't acquired in time or waiting was interrupted")
+    boolean acquired;
+}
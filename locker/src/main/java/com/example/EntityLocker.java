@@ -1,9 +1,21 @@
 package com.example;
 
+import java.util.Collection;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+/**
+ * Locks entities by id for the duration of protected code.
+ * <p>
+ * Implementations only have to provide the four basic {@code executeWithLock} methods, every other method
+ * has a default built on them: shared locking takes the exclusive lock, combining runs the code
+ * on the calling thread, and several entities are locked by nested calls in a canonical order.
+ * Lock handles can't be built on them, so {@code acquire} is unsupported by default.
+ * Implementations override the defaults with cheaper or more concurrent versions.
+ */
 public interface EntityLocker<T> {
 
     /**
@@ -51,4 +63,371 @@ public interface EntityLocker<T> {
      * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
      */
     <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException;
+
+    /**
+     * Execute given protected code on entity before the deadline. Entities locked by protected code
+     * consume the same budget, as the deadline is {@link Deadline#enter() entered} while the code runs.
+     *
+     * @param id entity id
+     * @param deadline deadline for acquiring the lock and all locks acquired by protected code
+     * @param protectedCode code to run
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired before the deadline, without waiting if it has passed
+     */
+    default <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        long remaining = deadline.remainingNanos();
+        if (remaining <= 0) {
+            throw new LockTimeoutException();
+        }
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return executeWithLock(id, protectedCode, remaining, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Execute given protected code on entity passing argument to it, so the code does not need to capture state.
+     *
+     * @param id entity id
+     * @param arg argument for protected code
+     * @param protectedCode code to run
+     * @param <A> argument type
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, () -> protectedCode.apply(arg));
+    }
+
+    /**
+     * Execute given protected code on entity passing argument to it with specified timeout.
+     *
+     * @param id entity id
+     * @param arg argument for protected code
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <A> argument type
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, () -> protectedCode.apply(arg), timeAmount, timeUnit);
+    }
+
+    /**
+     * Execute given protected code on entity passing two arguments to it.
+     *
+     * @param id entity id
+     * @param arg1 first argument for protected code
+     * @param arg2 second argument for protected code
+     * @param protectedCode code to run
+     * @param <A> first argument type
+     * @param <B> second argument type
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, () -> protectedCode.accept(arg1, arg2));
+    }
+
+    /**
+     * Execute given protected code on entity passing two arguments to it with specified timeout.
+     *
+     * @param id entity id
+     * @param arg1 first argument for protected code
+     * @param arg2 second argument for protected code
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <A> first argument type
+     * @param <B> second argument type
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        executeWithLock(id, () -> protectedCode.accept(arg1, arg2), timeAmount, timeUnit);
+    }
+
+    /**
+     * Lock entity until returned handle is closed.
+     *
+     * @param id entity id
+     * @return handle to unlock entity with
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     * @throws InterruptedException if thread was interrupted while waiting for lock
+     */
+    default LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        return acquire(id, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lock entity with specified timeout until returned handle is closed.
+     *
+     * @param id entity id
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @return handle to unlock entity with
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     * @throws InterruptedException if thread was interrupted while waiting for lock
+     * @throws UnsupportedOperationException if the locker doesn't support lock handles, by default
+     */
+    default LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        throw new UnsupportedOperationException("locker doesn't support lock handles");
+    }
+
+    /**
+     * Execute given protected code on entity if lock can be acquired within specified timeout.
+     * Unlike {@link #executeWithLock(Object, Runnable, long, TimeUnit)} doesn't throw when lock is not acquired.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @return true if code was executed, false if lock couldn't be acquired in time
+     * @throws ExecutionException if some error during execution occurs
+     */
+    default boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        try {
+            executeWithLock(id, protectedCode, timeAmount, timeUnit);
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Execute given protected code on entity if lock can be acquired within specified timeout.
+     * Unlike {@link #executeWithLock(Object, Callable, long, TimeUnit)} doesn't throw when lock is not acquired.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param valueIfNotLocked value to return when lock is not acquired
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <R> result type
+     * @return result of protected code execution or {@code valueIfNotLocked} if lock couldn't be acquired in time
+     * @throws ExecutionException if some error during execution occurs
+     */
+    default <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        try {
+            return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+        } catch (TimeoutException ex) {
+            return valueIfNotLocked;
+        }
+    }
+
+    /**
+     * Lock entity if it can be done within specified timeout.
+     *
+     * @param id entity id
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @return handle to unlock entity with or null if lock couldn't be acquired in time
+     * @throws InterruptedException if thread was interrupted while waiting for lock
+     */
+    default LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        try {
+            return acquire(id, timeAmount, timeUnit);
+        } catch (TimeoutException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Execute given protected code on entity holding shared lock, which excludes only code holding exclusive lock.
+     * Exclusive lock is held by {@code executeWithLock} and {@code executeWithWriteLock}.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    /**
+     * Execute given protected code on entity holding shared lock with specified timeout.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Execute given protected code on entity holding exclusive lock, same as {@link #executeWithLock(Object, Callable)}.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    /**
+     * Execute given protected code on entity holding exclusive lock with specified timeout,
+     * same as {@link #executeWithLock(Object, Callable, long, TimeUnit)}.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Execute given read-only code on entity without locking, and execute it again holding shared lock
+     * if exclusive lock was taken meanwhile. The code may observe inconsistent state on the first run,
+     * so it should have no side effects and tolerate it.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode);
+    }
+
+    /**
+     * Same as {@link #executeWithOptimisticRead(Object, Callable)} with specified timeout for shared lock.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     */
+    default <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Lock entity with shared lock until returned handle is closed.
+     *
+     * @param id entity id
+     * @return handle to unlock entity with
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     * @throws InterruptedException if thread was interrupted while waiting for lock
+     */
+    default LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        return acquire(id);
+    }
+
+    /**
+     * Lock entity with shared lock with specified timeout until returned handle is closed.
+     *
+     * @param id entity id
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @return handle to unlock entity with
+     * @throws TimeoutException if lock couldn't be acquired in time amount specified by implementation
+     * @throws InterruptedException if thread was interrupted while waiting for lock
+     */
+    default LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        return acquire(id, timeAmount, timeUnit);
+    }
+
+    /**
+     * Execute given protected code holding locks of all given entities.
+     * Locks are acquired in the same order by all callers, so concurrent calls on intersecting sets
+     * of entities can't deadlock each other (given the caller holds no other entity locks).
+     *
+     * @param ids entity ids
+     * @param protectedCode code to run
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if locks couldn't be acquired in time amount specified by implementation,
+     * no lock is held then
+     */
+    default <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return DefaultLocking.executeWithLocks(this, ids, protectedCode, false, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Execute given protected code holding locks of all given entities with specified timeout
+     * for acquiring the whole set.
+     *
+     * @param ids entity ids
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if locks couldn't be acquired in time, no lock is held then
+     */
+    default <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return DefaultLocking.executeWithLocks(this, ids, protectedCode, true, timeAmount, timeUnit);
+    }
+
+    /**
+     * Execute given protected code on entity in combining mode. Meant for very hot entities:
+     * instead of handing the lock over from thread to thread, the thread holding the lock runs protected code
+     * of all threads waiting for it, and results are delivered back. Protected code runs under the entity lock
+     * as with {@link #executeWithLock(Object, Callable)}, but possibly on another thread, so it must not
+     * depend on thread local state. For the same reason it must not lock entities: the other thread holds its own
+     * locks, not those of the caller, so the code could wait for the caller or enter entities the other thread holds.
+     * Implementations which combine fail such locking with {@link IllegalStateException}.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if protected code wasn't started in time amount specified by implementation,
+     * it won't be run then
+     */
+    default <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    /**
+     * Execute given protected code on entity in combining mode with specified timeout,
+     * see {@link #executeCombined(Object, Callable)}.
+     *
+     * @param id entity id
+     * @param protectedCode code to run
+     * @param timeAmount time amount for timeout
+     * @param timeUnit time unit for timeout
+     * @param <R> result type
+     * @return result of protected code execution
+     * @throws ExecutionException if some error during execution occurs
+     * @throws TimeoutException if protected code wasn't started in time, it won't be run then
+     */
+    default <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
 }
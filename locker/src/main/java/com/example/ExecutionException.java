@@ -4,4 +4,12 @@ public class ExecutionException extends Exception {
     public ExecutionException(String message, Throwable cause) {
         super(message, cause);
     }
+
+    /**
+     * @param writableStackTrace whether stack trace should be filled, lockers omit it
+     * as the cause already carries the stack of the failed protected code
+     */
+    public ExecutionException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, true, writableStackTrace);
+    }
 }
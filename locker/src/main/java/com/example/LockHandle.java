@@ -0,0 +1,19 @@
+package com.example;
+
+/**
+ * Lock of an entity held by the current thread, obtained with {@link EntityLocker#acquire(Object)}.
+ * Should be closed by the thread that acquired it, preferably with try-with-resources:
+ * <pre>{@code
+ * try (LockHandle ignored = locker.acquire(id, 1, TimeUnit.SECONDS)) {
+ *     // protected code
+ * }
+ * }</pre>
+ */
+public interface LockHandle extends AutoCloseable {
+
+    /**
+     * Unlock entity.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,12 @@
+package com.example;
+
+/**
+ * {@link LockTimeoutException} thrown without waiting when too many callers already wait for the entity lock.
+ * Rejections happen in bursts on hot entities, so like timeouts it doesn't fill stack trace.
+ */
+public class LockRejectedException extends LockTimeoutException {
+
+    public LockRejectedException() {
+        super("Operation cannot be executed due to too many waiters");
+    }
+}
@@ -0,0 +1,23 @@
+package com.example;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link TimeoutException} thrown when entity lock couldn't be acquired in time.
+ * Timeouts are expected under contention, so it doesn't fill stack trace to stay cheap.
+ */
+public class LockTimeoutException extends TimeoutException {
+
+    public LockTimeoutException() {
+        this("Operation cannot be executed due to timeout");
+    }
+
+    protected LockTimeoutException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -1,30 +1,576 @@
 package com.example;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
 
-public class LockWrapper {
-    private final AtomicInteger useCount = new AtomicInteger();
-    private final ReentrantLock delegate = new ReentrantLock();
+import jdk.jfr.EventType;
+
+/**
+ * Lock of an entity kept in a locker table. Serves as {@link LockHandle} of the exclusive (write) lock itself
+ * and creates handles of the shared (read) lock and of reentry on first use, so handing out a lock allocates
+ * nothing after that; tables that need to know when the lock is not used anymore override {@link #release()}.
+ * <p>
+ * Built on a {@link StampedLock}, which keeps no per-reader state, so every entity of a table pays for one small
+ * lock object only. The write lock is made reentrant by counting holds of its owner, a thread holding it takes
+ * the read lock as one more write hold. Read locks are not reentrant on their own, but taking one doesn't wait
+ * for queued writers, so nested read locking of the same entity doesn't deadlock. Optimistic reads use stamps
+ * of the stamped lock.
+ * <p>
+ * Waiting for a busy lock and holding the write lock are reported as flight recorder events
+ * ({@code com.example.EntityLockWait}, {@code com.example.EntityLockHold}) carrying the entity id.
+ * Lock is always tried without waiting first, so an uncontended lock only checks that hold events are enabled.
+ * <p>
+ * Hot entities can be executed in combining mode ({@link #executeCombined(Callable, long, TimeUnit)}):
+ * callers publish their code to the lock, and the thread which gets the lock runs everything published
+ * so far in one go, instead of handing the lock over thread by thread. Combined code runs holding the locks
+ * of whichever thread runs it, so it must not lock entities, lockers enforce that.
+ */
+public class LockWrapper implements LockHandle {
+    /**
+     * Usage count of a wrapper that was removed from use and must not be used anymore.
+     */
+    private static final int RETIRED = -1;
+    private static final AtomicIntegerFieldUpdater<LockWrapper> USE_COUNT =
+        AtomicIntegerFieldUpdater.newUpdater(LockWrapper.class, "useCount");
+
+    /**
+     * Longest entity id reported in flight recorder events.
+     */
+    private static final int MAX_EVENT_ID_LENGTH = 128;
+    private static final EventType WAIT_EVENT = EventType.getEventType(EntityLockWaitEvent.class);
+    private static final EventType HOLD_EVENT = EventType.getEventType(EntityLockHoldEvent.class);
+    private static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int MIN_SPINS = 16;
+    private static final int INITIAL_SPINS = 128;
+    private static final int MAX_SPINS = 1024;
+    private static final AtomicReferenceFieldUpdater<LockWrapper, Combined> PUBLISHED =
+        AtomicReferenceFieldUpdater.newUpdater(LockWrapper.class, Combined.class, "published");
+    /**
+     * Number of times a combiner takes published code before giving the lock away, bounds its own latency.
+     */
+    private static final int MAX_COMBINING_PASSES = 8;
+    /**
+     * Longest park of a publisher between attempts to become combiner. Unlocking wakes the latest publisher,
+     * this only covers publishers which gave up meanwhile.
+     */
+    private static final long MAX_COMBINING_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private volatile int useCount;
+    private final StampedLock delegate = new StampedLock();
+    private final Object id;
+    /**
+     * Thread holding the write lock. Not volatile: only the owner compares it with itself,
+     * and a thread always sees its own writes.
+     */
+    private Thread owner;
+    /**
+     * Write holds of the owner and stamp of its outermost one, accessed by the owner only.
+     */
+    private int holds;
+    private long writeStamp;
+    /**
+     * Created on first use, racy: a duplicate handle is harmless.
+     */
+    private LockHandle readHandle;
+    private LockHandle reentryHandle;
+    /**
+     * Event of the current write lock holder, accessed by it only.
+     */
+    private EntityLockHoldEvent holdEvent;
+    /**
+     * Told when the owner releases its outermost write hold, accessed by the owner only.
+     */
+    private HoldTracker tracker;
+    /**
+     * Spins to try before parking. Updated without synchronization: it is a heuristic, lost updates don't matter.
+     */
+    private int spinBudget = INITIAL_SPINS;
+    /**
+     * Stack of code published for combining, latest first.
+     */
+    private volatile Combined published;
+
+    public LockWrapper() {
+        this(null);
+    }
+
+    /**
+     * @param id entity id to report in flight recorder events
+     */
+    public LockWrapper(Object id) {
+        this.id = id;
+    }
+
+    /**
+     * Entity id to report in flight recorder events.
+     */
+    protected Object id() {
+        return id;
+    }
 
     public void incrementUsageCount() {
-        useCount.incrementAndGet();
+        USE_COUNT.incrementAndGet(this);
     }
 
     public void decrementUsageCount() {
-        useCount.decrementAndGet();
+        USE_COUNT.decrementAndGet(this);
+    }
+
+    /**
+     * Increment usage count unless wrapper is retired.
+     *
+     * @return false if wrapper is retired and a new one should be used instead
+     */
+    public boolean tryIncrementUsageCount() {
+        for (;;) {
+            int count = useCount;
+            if (count == RETIRED) {
+                return false;
+            }
+            if (USE_COUNT.compareAndSet(this, count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decrement usage count and retire wrapper if it is not in use anymore.
+     * Only one caller can retire wrapper, usages acquired concurrently via {@link #tryIncrementUsageCount()}
+     * prevent retiring.
+     *
+     * @return true if wrapper was retired by this call
+     */
+    public boolean decrementUsageCountAndRetire() {
+        return USE_COUNT.decrementAndGet(this) == 0 && USE_COUNT.compareAndSet(this, 0, RETIRED);
     }
 
     public boolean isInUse() {
-        return useCount.get() != 0;
+        return useCount > 0;
     }
 
     public boolean tryLock(long timeOut, TimeUnit timeUnit) throws InterruptedException {
-        return delegate.tryLock(timeOut, timeUnit);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (tryLockNow(false)) {
+            return true;
+        }
+        long stamp = await(false, timeOut, timeUnit);
+        if (stamp == 0) {
+            return false;
+        }
+        writeLocked(stamp);
+        return true;
+    }
+
+    /**
+     * Tell the tracker when the current thread releases its outermost write hold, e.g. to forget the lock
+     * in a record of held locks. Only one tracker is kept, and it's dropped once told.
+     *
+     * @throws IllegalMonitorStateException if current thread doesn't hold the write lock
+     */
+    public void track(HoldTracker tracker) {
+        if (!isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        this.tracker = tracker;
+    }
+
+    /**
+     * Take the write lock once more without obtaining the lock from its table again,
+     * only for a thread which holds the write lock already.
+     *
+     * @return handle which only unlocks, the lock is released by the outermost handle
+     */
+    public LockHandle reenter() {
+        if (!isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        holds++;
+        LockHandle handle = reentryHandle;
+        if (handle == null) {
+            reentryHandle = handle = new ReentryHandle();
+        }
+        return handle;
     }
 
+    /**
+     * Try to take the lock spinning for a while instead of parking. The spin budget of this lock is
+     * doubled when spinning succeeds and halved when it fails, so entities with long critical sections
+     * quickly stop wasting CPU on it.
+     *
+     * @param shared take the read lock instead of the write lock
+     * @return true if lock was taken, otherwise it should be taken with a blocking call
+     */
+    public boolean trySpinLock(boolean shared) {
+        if (tryLockNow(shared)) {
+            return true;
+        }
+        if (!MULTIPROCESSOR) {
+            return false;
+        }
+        int budget = spinBudget;
+        for (int spins = 0; spins < budget; spins++) {
+            Thread.onSpinWait();
+            // read the state before trying CAS, so spinning threads don't bounce the cache line
+            if (!delegate.isWriteLocked() && tryLockNow(shared)) {
+                spinBudget = Math.min(budget << 1, MAX_SPINS);
+                return true;
+            }
+        }
+        spinBudget = Math.max(budget >>> 1, MIN_SPINS);
+        return false;
+    }
+
+    private boolean tryLockNow(boolean shared) {
+        if (isHeldByCurrentThread()) {
+            // the write lock serves shared locking of its owner too
+            holds++;
+            return true;
+        }
+        if (shared) {
+            return delegate.tryReadLock() != 0;
+        }
+        long stamp = delegate.tryWriteLock();
+        if (stamp == 0) {
+            return false;
+        }
+        writeLocked(stamp);
+        return true;
+    }
+
+    private boolean isHeldByCurrentThread() {
+        return owner == Thread.currentThread();
+    }
+
+    private void writeLocked(long stamp) {
+        owner = Thread.currentThread();
+        holds = 1;
+        writeStamp = stamp;
+        if (HOLD_EVENT.isEnabled()) {
+            holdEvent = new EntityLockHoldEvent();
+            holdEvent.begin();
+        }
+    }
+
+    /**
+     * @throws IllegalMonitorStateException if current thread doesn't hold the write lock
+     */
     public void unlock() {
-        delegate.unlock();
+        if (!isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        if (--holds > 0) {
+            return;
+        }
+        owner = null;
+        HoldTracker held = tracker;
+        if (held != null) {
+            tracker = null;
+            held.unheld(this);
+        }
+        EntityLockHoldEvent event = holdEvent;
+        if (event != null) {
+            holdEvent = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.entity = eventId();
+                event.commit();
+            }
+        }
+        delegate.unlockWrite(writeStamp);
+        wakePublisher();
+    }
+
+    public boolean tryReadLock(long timeOut, TimeUnit timeUnit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return tryLockNow(true) || await(true, timeOut, timeUnit) != 0;
+    }
+
+    /**
+     * @throws IllegalMonitorStateException if the read lock is not held
+     */
+    public void readUnlock() {
+        if (isHeldByCurrentThread()) {
+            // taken as a write hold
+            unlock();
+            return;
+        }
+        if (!delegate.tryUnlockRead()) {
+            throw new IllegalMonitorStateException();
+        }
+        wakePublisher();
+    }
+
+    /**
+     * Handle to unlock and release read lock with.
+     */
+    public LockHandle readHandle() {
+        LockHandle handle = readHandle;
+        if (handle == null) {
+            readHandle = handle = new ReadHandle();
+        }
+        return handle;
+    }
+
+    /**
+     * Start optimistic read.
+     *
+     * @return stamp to {@link #validate(long)} after reading, or zero if write lock is held
+     */
+    public long tryOptimisticRead() {
+        return delegate.tryOptimisticRead();
+    }
+
+    /**
+     * Check that write lock was not taken since stamp was obtained, so values read in between are consistent.
+     *
+     * @param stamp stamp obtained with {@link #tryOptimisticRead()}
+     * @return true if reads were consistent
+     */
+    public boolean validate(long stamp) {
+        return stamp != 0 && delegate.validate(stamp);
+    }
+
+    /**
+     * Give the lock back to the table it was obtained from, called once per obtaining after unlocking,
+     * or instead of locking if lock was not acquired.
+     */
+    public void release() {
+    }
+
+    /**
+     * Unlock and release.
+     */
+    @Override
+    public void close() {
+        unlock();
+        release();
+    }
+
+    /**
+     * Execute code holding the write lock in combining mode: the code is published to the lock and run either
+     * by this thread, or by another one holding the lock meanwhile. Code of a thread which already holds
+     * the lock is run right away.
+     *
+     * @return result of the code
+     * @throws ExecutionException if code failed with exception
+     * @throws TimeoutException if code wasn't started in time, it won't be run then
+     * @throws InterruptedException if thread was interrupted before code was started, it won't be run then
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R executeCombined(Callable<R> code, long timeOut, TimeUnit timeUnit) throws ExecutionException, TimeoutException, InterruptedException {
+        boolean reentered = isHeldByCurrentThread();
+        if (reentered || published == null && tryLockNow(false)) {
+            // nothing to combine with, run right away
+            try {
+                return code.call();
+            } catch (Exception ex) {
+                throw new ExecutionException("Exception during execution with lock", ex, false);
+            } finally {
+                if (!reentered) {
+                    try {
+                        combine();
+                    } finally {
+                        unlock();
+                    }
+                }
+            }
+        }
+        Combined request = new Combined(code, Thread.currentThread());
+        publish(request);
+        long timeout = timeUnit.toNanos(timeOut);
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                if (request.state == Combined.DONE) {
+                    return (R) request.result();
+                }
+                if (tryLockNow(false)) {
+                    try {
+                        combine();
+                    } finally {
+                        unlock();
+                    }
+                    // own request was published before combining, so it is done now
+                    continue;
+                }
+                long remaining = timeout - (System.nanoTime() - start);
+                interrupted |= Thread.interrupted();
+                if (remaining <= 0 || interrupted) {
+                    if (request.cancel()) {
+                        if (interrupted) {
+                            interrupted = false;
+                            throw new InterruptedException();
+                        }
+                        throw new LockTimeoutException();
+                    }
+                    // already being run, the result is about to come
+                    remaining = MAX_COMBINING_PARK_NANOS;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, MAX_COMBINING_PARK_NANOS));
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void publish(Combined request) {
+        for (;;) {
+            Combined head = published;
+            request.next = head;
+            if (PUBLISHED.compareAndSet(this, head, request)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run published code, called holding the write lock.
+     */
+    private void combine() {
+        for (int pass = 0; pass < MAX_COMBINING_PASSES && published != null; pass++) {
+            Combined latest = PUBLISHED.getAndSet(this, null);
+            // run in order of publishing
+            Combined earliest = null;
+            while (latest != null) {
+                Combined next = latest.next;
+                latest.next = earliest;
+                earliest = latest;
+                latest = next;
+            }
+            for (Combined request = earliest; request != null; request = request.next) {
+                request.run();
+            }
+        }
+    }
+
+    private void wakePublisher() {
+        Combined latest = published;
+        if (latest != null) {
+            LockSupport.unpark(latest.thread);
+        }
+    }
+
+    /**
+     * @return stamp of the taken lock, or zero if it wasn't taken in time
+     */
+    private long await(boolean shared, long timeOut, TimeUnit timeUnit) throws InterruptedException {
+        if (!WAIT_EVENT.isEnabled()) {
+            return tryAcquire(shared, timeOut, timeUnit);
+        }
+        EntityLockWaitEvent event = new EntityLockWaitEvent();
+        event.begin();
+        boolean locked = false;
+        try {
+            long stamp = tryAcquire(shared, timeOut, timeUnit);
+            locked = stamp != 0;
+            return stamp;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.entity = eventId();
+                event.timeout = timeUnit.toNanos(timeOut);
+                event.shared = shared;
+                event.acquired = locked;
+                event.commit();
+            }
+        }
+    }
+
+    private long tryAcquire(boolean shared, long timeOut, TimeUnit timeUnit) throws InterruptedException {
+        return shared ? delegate.tryReadLock(timeOut, timeUnit) : delegate.tryWriteLock(timeOut, timeUnit);
+    }
+
+    private String eventId() {
+        String value = String.valueOf(id());
+        return value.length() > MAX_EVENT_ID_LENGTH ? value.substring(0, MAX_EVENT_ID_LENGTH) : value;
+    }
+
+    /**
+     * See {@link #track(HoldTracker)}.
+     */
+    public interface HoldTracker {
+
+        /**
+         * Called on the thread which held the lock, after its outermost write hold is released.
+         */
+        void unheld(LockWrapper lock);
+    }
+
+    private static final class Combined {
+        private static final int WAITING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int CANCELLED = 3;
+        private static final AtomicIntegerFieldUpdater<Combined> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Combined.class, "state");
+
+        private final Callable<?> code;
+        private final Thread thread;
+        private Combined next;
+        private volatile int state;
+        /**
+         * Written before state becomes done and read after, so volatile state publishes them.
+         */
+        private Object value;
+        private Throwable failure;
+
+        private Combined(Callable<?> code, Thread thread) {
+            this.code = code;
+            this.thread = thread;
+        }
+
+        private void run() {
+            if (!STATE.compareAndSet(this, WAITING, RUNNING)) {
+                return;
+            }
+            try {
+                value = code.call();
+            } catch (Throwable ex) {
+                failure = ex;
+            }
+            state = DONE;
+            LockSupport.unpark(thread);
+        }
+
+        private boolean cancel() {
+            return STATE.compareAndSet(this, WAITING, CANCELLED);
+        }
+
+        private Object result() throws ExecutionException {
+            if (failure instanceof Exception) {
+                throw new ExecutionException("Exception during execution with lock", failure, false);
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            return value;
+        }
+    }
+
+    private final class ReadHandle implements LockHandle {
+        @Override
+        public void close() {
+            readUnlock();
+            release();
+        }
+    }
+
+    private final class ReentryHandle implements LockHandle {
+        @Override
+        public void close() {
+            unlock();
+        }
     }
 }
@@ -0,0 +1,930 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.example.AcquisitionPolicy;
+import com.example.Deadline;
+import com.example.EntityLocker;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockRejectedException;
+import com.example.LockTimeoutException;
+import com.example.LockWrapper;
+
+/**
+ * Base of lockers which keep entity locks in a table. Implementations only provide the table lookup
+ * ({@link #retain(Object)}), every entry point of {@link EntityLocker} shares the same path on top of it.
+ * The path itself allocates nothing, so for tables that reuse their locks an uncontended
+ * call with non-capturing protected code is allocation free. Exceptions are thrown without stack traces:
+ * timeouts are expected under contention, and failures of protected code carry their own stack in the cause.
+ * <p>
+ * Timeouts of all calls are bounded by the {@link Deadline} entered by the calling thread, if any.
+ * <p>
+ * Every thread remembers the last few entities it has locked exclusively. Nested calls for an entity the thread
+ * still holds reenter its lock without touching the table, e.g. without retaining the lock again.
+ */
+public abstract class AbstractEntityLocker<T> implements EntityLocker<T> {
+
+    private final long defaultTimeAmount;
+    private final TimeUnit timeUnit;
+    /**
+     * Serializes acquisition of entity sets which can't be ordered unambiguously.
+     */
+    private final ReentrantLock tieLock = new ReentrantLock();
+    private final boolean spin;
+    /**
+     * Entities locked exclusively by the thread and whether it runs combined code,
+     * created on its first exclusive lock or combined execution.
+     */
+    private final ThreadLocal<HeldLocks> heldLocks = new ThreadLocal<>();
+
+    protected AbstractEntityLocker(long defaultTimeAmount, TimeUnit timeUnit) {
+        this(defaultTimeAmount, timeUnit, AcquisitionPolicy.PARK);
+    }
+
+    protected AbstractEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, AcquisitionPolicy acquisitionPolicy) {
+        checkNotNull(timeUnit, "timeUnit");
+        checkNotNull(acquisitionPolicy, "acquisitionPolicy");
+        if (defaultTimeAmount < 0) {
+            throw new IllegalArgumentException("time amount should be >= 0");
+        }
+        this.defaultTimeAmount = defaultTimeAmount;
+        this.timeUnit = timeUnit;
+        this.spin = acquisitionPolicy == AcquisitionPolicy.SPIN_THEN_PARK;
+    }
+
+    /**
+     * Get lock of entity without waiting, obtained lock should be given back with {@link LockWrapper#release()}.
+     *
+     * @return entity lock or null if table has no room for the entity right now
+     */
+    protected abstract LockWrapper retain(T id);
+
+    /**
+     * Maximum number of entities the table keeps locks of at once, tables of bounded size should override it.
+     */
+    protected int maxLiveLocks() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get lock of entity waiting for the room in table up to the given timeout.
+     * Only tables of bounded size need to override it.
+     *
+     * @return entity lock or null if table had no room for the entity in time
+     */
+    protected LockWrapper retain(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        return retain(id);
+    }
+
+    /**
+     * Get locks of several entities without waiting, like {@link #retain(Object)} does for one.
+     * Tables can override it to look entities up in batch.
+     *
+     * @param locks array to put entity locks into, null for entities table has no room for right now
+     */
+    protected void retainAll(List<T> ids, LockWrapper[] locks) {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = retain(ids.get(i));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        run(lock(id, defaultTimeAmount, timeUnit), protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        run(lock(id, timeAmount, timeUnit), protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        return call(lock(id, defaultTimeAmount, timeUnit), protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return call(lock(id, timeAmount, timeUnit), protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if deadline is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(deadline, "deadline");
+        checkNotNull(protectedCode, "protectedCode");
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return call(lock(id, defaultTimeAmount, timeUnit), protectedCode);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        return apply(lock(id, defaultTimeAmount, timeUnit), arg, protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return apply(lock(id, timeAmount, timeUnit), arg, protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        accept(lock(id, defaultTimeAmount, timeUnit), arg1, arg2, protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        accept(lock(id, timeAmount, timeUnit), arg1, arg2, protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     */
+    @Override
+    public final LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        return acquire(id, defaultTimeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return checkLocked(tryLock(id, false, timeAmount, timeUnit));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        if (lock == null) {
+            return false;
+        }
+        run(lock, protectedCode);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        return lock != null ? call(lock, protectedCode) : valueIfNotLocked;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return tryLock(id, false, timeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        return call(checkLocked(tryLockOrFail(id, true, defaultTimeAmount, timeUnit)), protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return call(checkLocked(tryLockOrFail(id, true, timeAmount, timeUnit)), protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        return optimisticRead(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return optimisticRead(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     */
+    @Override
+    public final LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        return checkLocked(tryLock(id, true, defaultTimeAmount, timeUnit));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return checkLocked(tryLock(id, true, timeAmount, timeUnit));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if ids or any of them is null
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    @Override
+    public final <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkIds(ids);
+        checkNotNull(protectedCode, "protectedCode");
+        return lockAll(ids, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if ids or any of them is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    @Override
+    public final <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkIds(ids);
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return lockAll(ids, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalStateException if called from combined code
+     */
+    @Override
+    public final <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        return combine(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     * @throws IllegalStateException if called from combined code
+     */
+    @Override
+    public final <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return combine(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    protected final long defaultTimeAmount() {
+        return defaultTimeAmount;
+    }
+
+    protected final TimeUnit defaultTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Lock entity, timeout is bounded by the deadline entered by the current thread.
+     *
+     * @param shared whether shared (read) or exclusive (write) lock is needed
+     * @return handle of locked entity lock or null if it couldn't be locked in time
+     */
+    protected final LockHandle tryLock(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        if (Deadline.current() != null) {
+            timeAmount = boundedTimeout(timeAmount, timeUnit);
+            timeUnit = TimeUnit.NANOSECONDS;
+            if (timeAmount < 0) {
+                return null;
+            }
+        }
+        LockWrapper held = held(id);
+        if (held != null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            // exclusive lock held already serves shared locking too
+            return held.reenter();
+        }
+        LockWrapper lock = retain(id);
+        if (lock == null) {
+            // table is full, wait for room within the same timeout
+            long start = System.nanoTime();
+            lock = retain(id, timeAmount, timeUnit);
+            if (lock == null) {
+                return null;
+            }
+            timeAmount = Math.max(timeUnit.toNanos(timeAmount) - (System.nanoTime() - start), 0);
+            timeUnit = TimeUnit.NANOSECONDS;
+        }
+        LockHandle handle = tryLock(lock, shared, timeAmount, timeUnit);
+        if (handle != null && !shared) {
+            hold(id, lock);
+        }
+        return handle;
+    }
+
+    /**
+     * Lock retained entity lock, the lock is released if it couldn't be locked in time.
+     *
+     * @param shared whether shared (read) or exclusive (write) lock is needed
+     * @return handle of locked entity lock or null if it couldn't be locked in time
+     */
+    protected final LockHandle tryLock(LockWrapper lock, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        boolean locked = false;
+        try {
+            locked = lock(lock, shared, timeAmount, timeUnit);
+        } finally {
+            if (!locked) {
+                lock.release();
+            }
+        }
+        if (!locked) {
+            return null;
+        }
+        return shared ? lock.readHandle() : lock;
+    }
+
+    /**
+     * Lock with the acquisition policy of the locker.
+     */
+    private boolean lock(LockWrapper lock, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        if (spin && timeAmount != 0 && !Threads.isVirtual() && lock.trySpinLock(shared)) {
+            return true;
+        }
+        return shared ? lock.tryReadLock(timeAmount, timeUnit) : lock.tryLock(timeAmount, timeUnit);
+    }
+
+    private LockHandle lock(T id, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit));
+    }
+
+    private LockHandle tryLockOrFail(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        try {
+            return tryLock(id, shared, timeAmount, timeUnit);
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private <R> R optimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        timeAmount = checkDeadline(timeAmount, timeUnit);
+        timeUnit = TimeUnit.NANOSECONDS;
+        LockWrapper held = held(id);
+        if (held != null) {
+            return call(held.reenter(), protectedCode);
+        }
+        LockWrapper lock = retain(id);
+        if (lock == null) {
+            return call(checkLocked(tryLockOrFail(id, true, timeAmount, timeUnit)), protectedCode);
+        }
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            R result = null;
+            Exception failure = null;
+            try {
+                result = protectedCode.call();
+            } catch (Exception ex) {
+                failure = ex;
+            } catch (Error error) {
+                lock.release();
+                throw error;
+            }
+            if (lock.validate(stamp)) {
+                lock.release();
+                if (failure != null) {
+                    throw executionFailure(failure);
+                }
+                return result;
+            }
+        }
+        // entity was written meanwhile, read again under shared lock of the already retained entity lock
+        LockHandle handle;
+        try {
+            handle = tryLock(lock, true, timeAmount, timeUnit);
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+        return call(checkLocked(handle), protectedCode);
+    }
+
+    private <R> R combine(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        timeAmount = checkDeadline(timeAmount, timeUnit);
+        timeUnit = TimeUnit.NANOSECONDS;
+        LockWrapper held = held(id);
+        if (held != null) {
+            return call(held.reenter(), protectedCode);
+        }
+        try {
+            LockWrapper lock = retain(id);
+            if (lock == null) {
+                long start = System.nanoTime();
+                lock = retain(id, timeAmount, timeUnit);
+                if (lock == null) {
+                    throw new LockTimeoutException();
+                }
+                timeAmount = Math.max(timeUnit.toNanos(timeAmount) - (System.nanoTime() - start), 0);
+                timeUnit = TimeUnit.NANOSECONDS;
+            }
+            // combined code may run on the thread of another caller, holding that caller's locks
+            HeldLocks locks = heldLocksOrCreate();
+            locks.combining++;
+            try {
+                return lock.executeCombined(protectedCode, timeAmount, timeUnit);
+            } finally {
+                locks.combining--;
+                lock.release();
+            }
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private <R> R lockAll(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        HeldLocks held = heldLocks.get();
+        if (held != null) {
+            checkNotCombining(held);
+        }
+        long timeout = checkDeadline(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        List<T> ordered = new ArrayList<>(new LinkedHashSet<>(ids));
+        if (ordered.size() > maxLiveLocks()) {
+            // would wait for room forever
+            throw new LockRejectedException();
+        }
+        boolean ambiguous = sortCanonically(ordered);
+        LockWrapper[] locks = new LockWrapper[ordered.size()];
+        int locked = 0;
+        boolean tieLocked = false;
+        try {
+            if (ambiguous) {
+                tieLocked = tieLock.tryLock(remaining(start, timeout), TimeUnit.NANOSECONDS);
+                if (!tieLocked) {
+                    throw new LockTimeoutException();
+                }
+            }
+            retainAll(ordered, locks);
+            while (locked < locks.length) {
+                if (locks[locked] == null) {
+                    locks[locked] = retain(ordered.get(locked));
+                }
+                if (locks[locked] == null) {
+                    // table is full: wait for room holding nothing, so that callers don't wait for each other's locks
+                    backOff(locks, locked);
+                    T full = ordered.get(locked);
+                    locked = 0;
+                    long remaining = remaining(start, timeout);
+                    if (remaining == 0) {
+                        // the wait below may succeed at once each time, so it can't be relied on to time out
+                        throw new LockTimeoutException();
+                    }
+                    LockWrapper awaited = retain(full, remaining, TimeUnit.NANOSECONDS);
+                    if (awaited == null) {
+                        throw new LockTimeoutException();
+                    }
+                    retainAll(ordered, locks);
+                    awaited.release();
+                    continue;
+                }
+                if (!lock(locks[locked], false, remaining(start, timeout), TimeUnit.NANOSECONDS)) {
+                    throw new LockTimeoutException();
+                }
+                locked++;
+            }
+            if (tieLocked) {
+                tieLocked = false;
+                tieLock.unlock();
+            }
+            try {
+                return protectedCode.call();
+            } catch (Exception ex) {
+                throw executionFailure(ex);
+            }
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                if (locks[i] != null) {
+                    if (i < locked) {
+                        locks[i].unlock();
+                    }
+                    locks[i].release();
+                }
+            }
+            if (tieLocked) {
+                tieLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Unlock and release locks taken by {@link #lockAll} so far, the first {@code locked} of them are locked.
+     */
+    private static void backOff(LockWrapper[] locks, int locked) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            if (locks[i] != null) {
+                if (i < locked) {
+                    locks[i].unlock();
+                }
+                locks[i].release();
+                locks[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return lock of the entity if current thread holds it exclusively, null otherwise
+     */
+    private LockWrapper held(T id) {
+        HeldLocks locks = heldLocks.get();
+        if (locks == null) {
+            return null;
+        }
+        checkNotCombining(locks);
+        return locks.find(id);
+    }
+
+    private void hold(T id, LockWrapper lock) {
+        heldLocksOrCreate().add(id, lock);
+    }
+
+    private HeldLocks heldLocksOrCreate() {
+        HeldLocks locks = heldLocks.get();
+        if (locks == null) {
+            locks = new HeldLocks();
+            heldLocks.set(locks);
+        }
+        return locks;
+    }
+
+    /**
+     * @throws IllegalStateException if the thread runs combined code, which must not lock entities
+     */
+    private static void checkNotCombining(HeldLocks locks) {
+        if (locks.combining > 0) {
+            throw new IllegalStateException("entities can't be locked inside combined code");
+        }
+    }
+
+    /**
+     * Sort ids in the order all callers lock them in, hash code order. Natural order isn't used even for
+     * comparable ids: it is not one order across sets of different types, and it may be inconsistent with equals.
+     *
+     * @return true if some ids have equal hash codes, so their order is ambiguous
+     */
+    private static <T> boolean sortCanonically(List<T> ids) {
+        ids.sort(Comparator.comparingInt(Object::hashCode));
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i - 1).hashCode() == ids.get(i).hashCode()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Timeout bounded by the deadline entered by the current thread.
+     *
+     * @return timeout in nanoseconds, negative if the deadline has passed
+     */
+    static long boundedTimeout(long timeAmount, TimeUnit timeUnit) {
+        long timeout = timeUnit.toNanos(timeAmount);
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return timeout;
+        }
+        long remaining = deadline.remainingNanos();
+        return remaining > 0 ? Math.min(timeout, remaining) : -1;
+    }
+
+    /**
+     * @return timeout in nanoseconds bounded by the deadline entered by the current thread
+     * @throws LockTimeoutException if the deadline has passed
+     */
+    private static long checkDeadline(long timeAmount, TimeUnit timeUnit) throws LockTimeoutException {
+        long timeout = boundedTimeout(timeAmount, timeUnit);
+        if (timeout < 0) {
+            throw new LockTimeoutException();
+        }
+        return timeout;
+    }
+
+    private static long remaining(long start, long timeout) {
+        return Math.max(timeout - (System.nanoTime() - start), 0);
+    }
+
+    private static void checkIds(Collection<?> ids) {
+        checkNotNull(ids, "ids");
+        for (Object id : ids) {
+            checkNotNull(id, "id");
+        }
+    }
+
+    protected static LockHandle checkLocked(LockHandle lock) throws TimeoutException {
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    protected static ExecutionException executionFailure(Exception cause) {
+        return new ExecutionException("Exception during execution with lock", cause, false);
+    }
+
+    protected static void checkTimeout(long timeAmount, TimeUnit timeUnit) {
+        checkNotNull(timeUnit, "timeUnit");
+        if (timeAmount < 0) {
+            throw new IllegalArgumentException("time amount should be >= 0");
+        }
+    }
+
+    protected static void run(LockHandle lock, Runnable protectedCode) throws ExecutionException {
+        try {
+            protectedCode.run();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    protected static <R> R call(LockHandle lock, Callable<R> protectedCode) throws ExecutionException {
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    protected static <A, R> R apply(LockHandle lock, A arg, Function<A, R> protectedCode) throws ExecutionException {
+        try {
+            return protectedCode.apply(arg);
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    protected static <A, B> void accept(LockHandle lock, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException {
+        try {
+            protectedCode.accept(arg1, arg2);
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Entities locked exclusively by a thread, accessed by the thread only. An entry is removed when the thread
+     * releases its outermost hold of the lock, so the record never keeps locks or their tables reachable.
+     * Entities locked when all entries are taken are not remembered.
+     */
+    private static final class HeldLocks implements LockWrapper.HoldTracker {
+        private static final int CAPACITY = 8;
+
+        private final Object[] ids = new Object[CAPACITY];
+        private final LockWrapper[] locks = new LockWrapper[CAPACITY];
+        /**
+         * Depth of combined execution by the thread.
+         */
+        private int combining;
+
+        LockWrapper find(Object id) {
+            for (int i = 0; i < CAPACITY; i++) {
+                LockWrapper lock = locks[i];
+                if (lock != null && id.equals(ids[i])) {
+                    return lock;
+                }
+            }
+            return null;
+        }
+
+        void add(Object id, LockWrapper lock) {
+            for (int i = 0; i < CAPACITY; i++) {
+                if (locks[i] == null) {
+                    ids[i] = id;
+                    locks[i] = lock;
+                    lock.track(this);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void unheld(LockWrapper lock) {
+            for (int i = 0; i < CAPACITY; i++) {
+                if (locks[i] == lock) {
+                    ids[i] = null;
+                    locks[i] = null;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+import static com.example.impl.AbstractEntityLocker.accept;
+import static com.example.impl.AbstractEntityLocker.apply;
+import static com.example.impl.AbstractEntityLocker.call;
+import static com.example.impl.AbstractEntityLocker.checkLocked;
+import static com.example.impl.AbstractEntityLocker.checkTimeout;
+import static com.example.impl.AbstractEntityLocker.executionFailure;
+import static com.example.impl.AbstractEntityLocker.run;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.example.Deadline;
+import com.example.EntityLocker;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockRejectedException;
+import com.example.LockTimeoutException;
+
+/**
+ * Locker shedding load of another locker: callers which would wait for an entity already waited for by
+ * {@code maxWaitersPerEntity} callers, or while {@code maxWaitingThreads} callers wait for any entity, are rejected
+ * at once with {@link LockRejectedException} instead of queueing. Methods which report busy locks by their result,
+ * like {@link #tryExecuteWithLock(Object, Runnable, long, TimeUnit)}, report rejection the same way.
+ * <p>
+ * Every lock is first tried without waiting, only callers which have to wait are counted, so uncontended locking
+ * costs just one more lookup. Locking of several entities at once, optimistic reads and combined execution fall back
+ * to waiting as a whole, counted as a waiter of each of their entities.
+ */
+public final class AdmissionControlledEntityLocker<T> implements EntityLocker<T> {
+    /**
+     * Limit value which disables the limit.
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final AbstractEntityLocker<T> delegate;
+    private final int maxWaitersPerEntity;
+    private final int maxWaitingThreads;
+    private final ConcurrentMap<T, Integer> waiters = new ConcurrentHashMap<>();
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxWaitersPerEntity callers allowed to wait for one entity, {@link #UNLIMITED} for no limit
+     */
+    public AdmissionControlledEntityLocker(AbstractEntityLocker<T> delegate, int maxWaitersPerEntity) {
+        this(delegate, maxWaitersPerEntity, UNLIMITED);
+    }
+
+    /**
+     * @param maxWaitersPerEntity callers allowed to wait for one entity, {@link #UNLIMITED} for no limit
+     * @param maxWaitingThreads   callers allowed to wait for all entities together, {@link #UNLIMITED} for no limit
+     */
+    public AdmissionControlledEntityLocker(AbstractEntityLocker<T> delegate, int maxWaitersPerEntity, int maxWaitingThreads) {
+        checkNotNull(delegate, "delegate");
+        if (maxWaitersPerEntity < 0) {
+            throw new IllegalArgumentException("maxWaitersPerEntity should be >= 0");
+        }
+        if (maxWaitingThreads < 0) {
+            throw new IllegalArgumentException("maxWaitingThreads should be >= 0");
+        }
+        this.delegate = delegate;
+        this.maxWaitersPerEntity = maxWaitersPerEntity;
+        this.maxWaitingThreads = maxWaitingThreads;
+    }
+
+    /**
+     * @return number of callers rejected so far
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of callers waiting for entity locks now
+     */
+    public int getWaitingThreads() {
+        return waitingThreads.get();
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        run(checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit)), protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return call(checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit)), protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(deadline, "deadline");
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return executeWithLock(id, protectedCode);
+        }
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, arg, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return apply(checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit)), arg, protectedCode);
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, arg1, arg2, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        accept(checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit)), arg1, arg2, protectedCode);
+    }
+
+    @Override
+    public LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        return acquire(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return checkLocked(tryLock(id, false, timeAmount, timeUnit));
+    }
+
+    @Override
+    public boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLockOrNull(id, timeAmount, timeUnit);
+        if (lock == null) {
+            return false;
+        }
+        run(lock, protectedCode);
+        return true;
+    }
+
+    @Override
+    public <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLockOrNull(id, timeAmount, timeUnit);
+        return lock != null ? call(lock, protectedCode) : valueIfNotLocked;
+    }
+
+    @Override
+    public LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        try {
+            return tryLock(id, false, timeAmount, timeUnit);
+        } catch (LockRejectedException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return call(checkLocked(tryLockOrFail(id, true, timeAmount, timeUnit)), protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithOptimisticRead(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        try {
+            return delegate.executeWithOptimisticRead(id, protectedCode, 0, TimeUnit.NANOSECONDS);
+        } catch (LockTimeoutException ex) {
+            if (timeAmount == 0) {
+                throw ex;
+            }
+        }
+        List<T> ids = List.of(id);
+        enter(ids);
+        try {
+            return delegate.executeWithOptimisticRead(id, protectedCode, timeAmount, timeUnit);
+        } finally {
+            leave(ids);
+        }
+    }
+
+    @Override
+    public LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        return acquireRead(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return checkLocked(tryLock(id, true, timeAmount, timeUnit));
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLocks(ids, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(ids, "ids");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        for (T id : ids) {
+            checkNotNull(id, "id");
+        }
+        try {
+            return delegate.executeWithLocks(ids, protectedCode, 0, TimeUnit.NANOSECONDS);
+        } catch (LockTimeoutException ex) {
+            if (timeAmount == 0) {
+                throw ex;
+            }
+        }
+        // every entity is waited for once, however many times it's listed
+        List<T> waited = new ArrayList<>(new LinkedHashSet<>(ids));
+        enter(waited);
+        boolean[] waiting = {true};
+        try {
+            return delegate.executeWithLocks(ids, () -> {
+                waiting[0] = false;
+                leave(waited);
+                return protectedCode.call();
+            }, timeAmount, timeUnit);
+        } finally {
+            if (waiting[0]) {
+                leave(waited);
+            }
+        }
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeCombined(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        try {
+            return delegate.executeCombined(id, protectedCode, 0, TimeUnit.NANOSECONDS);
+        } catch (LockTimeoutException ex) {
+            if (timeAmount == 0) {
+                throw ex;
+            }
+        }
+        List<T> ids = List.of(id);
+        enter(ids);
+        try {
+            return delegate.executeCombined(id, protectedCode, timeAmount, timeUnit);
+        } finally {
+            leave(ids);
+        }
+    }
+
+    /**
+     * Lock trying it without waiting first, so that only callers which have to wait are counted.
+     *
+     * @throws LockRejectedException if the caller would exceed waiter limits
+     */
+    private LockHandle tryLock(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws LockRejectedException, InterruptedException {
+        LockHandle lock = delegate.tryLock(id, shared, 0, TimeUnit.NANOSECONDS);
+        if (lock != null || timeAmount == 0) {
+            return lock;
+        }
+        enterGlobal();
+        try {
+            enter(id);
+            try {
+                return delegate.tryLock(id, shared, timeAmount, timeUnit);
+            } finally {
+                leave(id);
+            }
+        } finally {
+            waitingThreads.decrementAndGet();
+        }
+    }
+
+    private LockHandle tryLockOrFail(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws ExecutionException, LockRejectedException {
+        try {
+            return tryLock(id, shared, timeAmount, timeUnit);
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private LockHandle tryLockOrNull(T id, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        try {
+            return tryLockOrFail(id, false, timeAmount, timeUnit);
+        } catch (LockRejectedException ex) {
+            return null;
+        }
+    }
+
+    private void enter(List<T> ids) throws LockRejectedException {
+        enterGlobal();
+        int entered = 0;
+        try {
+            for (; entered < ids.size(); entered++) {
+                enter(ids.get(entered));
+            }
+        } finally {
+            if (entered < ids.size()) {
+                for (int i = 0; i < entered; i++) {
+                    leave(ids.get(i));
+                }
+                waitingThreads.decrementAndGet();
+            }
+        }
+    }
+
+    private void leave(List<T> ids) {
+        for (T id : ids) {
+            leave(id);
+        }
+        waitingThreads.decrementAndGet();
+    }
+
+    private void enterGlobal() throws LockRejectedException {
+        if (waitingThreads.incrementAndGet() > maxWaitingThreads) {
+            waitingThreads.decrementAndGet();
+            throw rejection();
+        }
+    }
+
+    /**
+     * Count the caller as waiter of the entity. The count is bumped first and checked then, so racing callers
+     * can't overshoot the limit, at worst they are rejected both.
+     */
+    private void enter(T id) throws LockRejectedException {
+        if (maxWaitersPerEntity == UNLIMITED) {
+            return;
+        }
+        if (waiters.merge(id, 1, Integer::sum) > maxWaitersPerEntity) {
+            leave(id);
+            throw rejection();
+        }
+    }
+
+    private void leave(T id) {
+        if (maxWaitersPerEntity != UNLIMITED) {
+            waiters.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private LockRejectedException rejection() {
+        rejected.increment();
+        return new LockRejectedException();
+    }
+}
@@ -0,0 +1,495 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+import static com.example.impl.AbstractEntityLocker.boundedTimeout;
+import static com.example.impl.AbstractEntityLocker.checkTimeout;
+import static com.example.impl.AbstractEntityLocker.executionFailure;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.example.Deadline;
+import com.example.EntityLocker;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockTimeoutException;
+
+/**
+ * Locker which can stop all entity activity of another locker for a while: {@link #executeWithGlobalLock(Callable)}
+ * waits for running entity calls to finish and blocks new ones until protected code is done.
+ * <p>
+ * Entity calls announce themselves in counters striped by thread, so they don't write a word shared by all threads:
+ * an uncontended entity call costs an increment and a decrement of a mostly private counter and a read of the global
+ * owner. Global lock waits until all counters drain, entity calls coming meanwhile step back and wait for it.
+ * <p>
+ * Nested entity calls of a thread don't wait for the global lock, as it waits for their outer call anyway.
+ * With an escalation threshold, locking of more entities at once than the threshold takes the global lock instead,
+ * unless the thread is inside an entity call already. Handles of acquired locks should be closed by the same thread.
+ */
+public final class GlobalLockingEntityLocker<T> implements EntityLocker<T> {
+    /**
+     * Threshold value which disables escalation.
+     */
+    public static final int NO_ESCALATION = Integer.MAX_VALUE;
+    /**
+     * Longs per counter, keeps counters of different stripes in different cache lines.
+     */
+    private static final int PADDING = 16;
+
+    private final AbstractEntityLocker<T> delegate;
+    private final int escalationThreshold;
+    private final AtomicLongArray sections;
+    private final int mask;
+    /**
+     * Serializes global lockers, entity calls wait for the global lock to be released by locking it too.
+     */
+    private final ReentrantLock globalLock = new ReentrantLock();
+    private volatile Thread globalOwner;
+    /**
+     * Entity calls of the thread in progress.
+     */
+    private final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+    private final LongAdder escalations = new LongAdder();
+
+    public GlobalLockingEntityLocker(AbstractEntityLocker<T> delegate) {
+        this(delegate, NO_ESCALATION);
+    }
+
+    /**
+     * @param escalationThreshold max entities locked one by one by {@link #executeWithLocks(Collection, Callable)},
+     *                            {@link #NO_ESCALATION} to never escalate
+     */
+    public GlobalLockingEntityLocker(AbstractEntityLocker<T> delegate, int escalationThreshold) {
+        checkNotNull(delegate, "delegate");
+        if (escalationThreshold < 1) {
+            throw new IllegalArgumentException("escalation threshold should be > 0");
+        }
+        this.delegate = delegate;
+        this.escalationThreshold = escalationThreshold;
+        int stripes = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors() * 2 - 1, 1)) << 1;
+        this.sections = new AtomicLongArray(stripes * PADDING);
+        this.mask = stripes - 1;
+    }
+
+    /**
+     * Execute given protected code while no entity is locked by other threads.
+     *
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalStateException if the thread is inside an entity call of this locker
+     */
+    public <R> R executeWithGlobalLock(Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithGlobalLock(protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    /**
+     * Same as {@link #executeWithGlobalLock(Callable)} with specified timeout.
+     *
+     * @throws IllegalArgumentException if protectedCode is null, or timeout is invalid
+     */
+    public <R> R executeWithGlobalLock(Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        if (globalOwner == Thread.currentThread()) {
+            return call(protectedCode);
+        }
+        if (depth.get()[0] != 0) {
+            throw new IllegalStateException("global lock can't be taken inside entity call");
+        }
+        lockGlobally(boundedTimeout(timeAmount, timeUnit));
+        try {
+            return call(protectedCode);
+        } finally {
+            unlockGlobally();
+        }
+    }
+
+    /**
+     * @return count of {@link #executeWithLocks(Collection, Callable)} calls executed with the global lock
+     */
+    public long getEscalationCount() {
+        return escalations.sum();
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            delegate.executeWithLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            return delegate.executeWithLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(deadline, "deadline");
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return executeWithLock(id, protectedCode);
+        }
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, arg, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            return delegate.executeWithLock(id, arg, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, arg1, arg2, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            delegate.executeWithLock(id, arg1, arg2, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        return acquire(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLock(id, false, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = tryEnter(timeAmount, timeUnit);
+        if (stripe < 0) {
+            return false;
+        }
+        try {
+            return delegate.tryExecuteWithLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = tryEnter(timeAmount, timeUnit);
+        if (stripe < 0) {
+            return valueIfNotLocked;
+        }
+        try {
+            return delegate.tryExecuteWithLock(id, protectedCode, valueIfNotLocked, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return tryLock(id, false, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            return delegate.executeWithReadLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithOptimisticRead(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            return delegate.executeWithOptimisticRead(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        return acquireRead(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLock(id, true, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLocks(ids, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    /**
+     * Takes the global lock instead of entity locks if there are more entities than the escalation threshold
+     * and the thread is not inside another entity call.
+     */
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(ids, "ids");
+        checkTimeout(timeAmount, timeUnit);
+        if (ids.size() > escalationThreshold && depth.get()[0] == 0 && new HashSet<>(ids).size() > escalationThreshold) {
+            for (T id : ids) {
+                checkNotNull(id, "id");
+            }
+            checkNotNull(protectedCode, "protectedCode");
+            escalations.increment();
+            return executeWithGlobalLock(protectedCode, timeAmount, timeUnit);
+        }
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            return delegate.executeWithLocks(ids, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeCombined(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int stripe = enter(timeAmount, timeUnit);
+        try {
+            return delegate.executeCombined(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            exit(stripe);
+        }
+    }
+
+    private LockHandle tryLock(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        long start = System.nanoTime();
+        int stripe = tryEnterInterruptibly(boundedTimeout(timeAmount, timeUnit));
+        if (stripe < 0) {
+            return null;
+        }
+        LockHandle lock = null;
+        try {
+            lock = delegate.tryLock(id, shared, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            if (lock == null) {
+                exit(stripe);
+            }
+        }
+        if (lock == null) {
+            return null;
+        }
+        LockHandle entityLock = lock;
+        return () -> {
+            entityLock.close();
+            exit(stripe);
+        };
+    }
+
+    /**
+     * Count entity call of the current thread, waiting while the global lock is held by another thread.
+     *
+     * @return stripe to {@link #exit(int)} with
+     */
+    private int enter(long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        int stripe = tryEnter(timeAmount, timeUnit);
+        if (stripe < 0) {
+            throw new LockTimeoutException();
+        }
+        return stripe;
+    }
+
+    /**
+     * @return stripe to {@link #exit(int)} with, negative if the global lock wasn't released in time
+     */
+    private int tryEnter(long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        try {
+            return tryEnterInterruptibly(boundedTimeout(timeAmount, timeUnit));
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private int tryEnterInterruptibly(long timeoutNanos) throws InterruptedException {
+        int[] calls = depth.get();
+        int stripe = stripe();
+        long start = System.nanoTime();
+        for (;;) {
+            sections.getAndIncrement(stripe);
+            Thread owner = globalOwner;
+            if (owner == null || owner == Thread.currentThread() || calls[0] != 0) {
+                calls[0]++;
+                return stripe;
+            }
+            // step back to let the global lock drain, wait for it by locking it
+            leave(stripe);
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (remaining <= 0 || !globalLock.tryLock(remaining, TimeUnit.NANOSECONDS)) {
+                return -1;
+            }
+            globalLock.unlock();
+        }
+    }
+
+    private void exit(int stripe) {
+        depth.get()[0]--;
+        leave(stripe);
+    }
+
+    private void leave(int stripe) {
+        sections.getAndDecrement(stripe);
+        // read the owner after leaving: a global locker published before sees this call counted and parks
+        Thread owner = globalOwner;
+        if (owner != null) {
+            // global locker may wait for this call to finish
+            LockSupport.unpark(owner);
+        }
+    }
+
+    private void lockGlobally(long timeoutNanos) throws ExecutionException, TimeoutException {
+        long start = System.nanoTime();
+        try {
+            if (timeoutNanos < 0 || !globalLock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new LockTimeoutException();
+            }
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+        globalOwner = Thread.currentThread();
+        // entity calls seeing no owner have been counted already
+        while (sectionCount() != 0) {
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (remaining <= 0 || Thread.interrupted()) {
+                unlockGlobally();
+                if (remaining <= 0) {
+                    throw new LockTimeoutException();
+                }
+                throw executionFailure(new InterruptedException());
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    private void unlockGlobally() {
+        globalOwner = null;
+        globalLock.unlock();
+    }
+
+    private long sectionCount() {
+        long count = 0;
+        for (int i = 0; i <= mask; i++) {
+            count += sections.get(i * PADDING);
+        }
+        return count;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return ((int) (id * 0x9E3779B97F4A7C15L >>> 32) & mask) * PADDING;
+    }
+
+    private static <R> R call(Callable<R> protectedCode) throws ExecutionException {
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private static long remaining(long start, long timeAmount, TimeUnit timeUnit) {
+        return Math.max(timeUnit.toNanos(timeAmount) - (System.nanoTime() - start), 0);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.impl;
+
+/**
+ * Hash spreading shared by tables which pick a stripe or a slot by hash code.
+ */
+final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * Finalizer of MurmurHash3: every bit of the hash affects every bit of the result,
+     * so hash codes differing in high bits only don't collide in low bits.
+     */
+    static int spread(int hash) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,581 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+import static com.example.impl.AbstractEntityLocker.boundedTimeout;
+import static com.example.impl.AbstractEntityLocker.checkTimeout;
+import static com.example.impl.AbstractEntityLocker.executionFailure;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.example.Deadline;
+import com.example.EntityLocker;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockTimeoutException;
+
+/**
+ * Locker of entities grouped under parents (e.g. tenants or partitions) which can lock a whole group at once.
+ * <p>
+ * Entities are locked by another locker, every entity lock also takes an intention lock of the entity's parent:
+ * intention-exclusive for exclusive locks, intention-shared for shared locks and optimistic reads. Intentions
+ * are compatible with each other, so entity operations only count themselves in the parent with one CAS.
+ * Group locks ({@link #executeWithGroupLock(Object, Callable)}, {@link #executeWithGroupReadLock(Object, Callable)})
+ * exclude entity writes of the group, and the exclusive one entity reads as well, so a bulk operation takes one lock
+ * instead of a lock per entity. A thread holding the exclusive group lock can still lock entities of the group.
+ * A thread holding the group read lock can only read them: locking one of them exclusively waits for its own group
+ * lock. Entity locks can't be upgraded to group locks either. Group locks neither wait for nor block groups
+ * of other parents.
+ * <p>
+ * Group locks are not preferred over entity locks: a group lock waits until the group has no conflicting
+ * entity operations. Parent locks are kept for the lifetime of the locker, parents are expected to be few.
+ */
+public final class HierarchicalEntityLocker<P, T> implements EntityLocker<T> {
+    private final AbstractEntityLocker<T> delegate;
+    private final Function<? super T, ? extends P> parentOf;
+    private final ConcurrentMap<P, GroupLock> groups = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate locker of entities
+     * @param parentOf function giving parent of an entity, should be cheap and return equal parents for an entity
+     */
+    public HierarchicalEntityLocker(AbstractEntityLocker<T> delegate, Function<? super T, ? extends P> parentOf) {
+        checkNotNull(delegate, "delegate");
+        checkNotNull(parentOf, "parentOf");
+        this.delegate = delegate;
+        this.parentOf = parentOf;
+    }
+
+    /**
+     * Execute given protected code holding exclusive lock of the whole group: no entity of the group
+     * is locked by other threads meanwhile.
+     *
+     * @throws IllegalArgumentException if parent or protectedCode is null
+     */
+    public <R> R executeWithGroupLock(P parent, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithGroupLock(parent, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    /**
+     * Same as {@link #executeWithGroupLock(Object, Callable)} with specified timeout.
+     *
+     * @throws IllegalArgumentException if parent or protectedCode is null, or timeout is invalid
+     */
+    public <R> R executeWithGroupLock(P parent, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return group(parent, GroupLock.EXCLUSIVE, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Execute given protected code holding shared lock of the whole group: entities of the group
+     * can be read, but not written by other threads meanwhile.
+     *
+     * @throws IllegalArgumentException if parent or protectedCode is null
+     */
+    public <R> R executeWithGroupReadLock(P parent, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithGroupReadLock(parent, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    /**
+     * Same as {@link #executeWithGroupReadLock(Object, Callable)} with specified timeout.
+     *
+     * @throws IllegalArgumentException if parent or protectedCode is null, or timeout is invalid
+     */
+    public <R> R executeWithGroupReadLock(P parent, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return group(parent, GroupLock.SHARED, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Lock the whole group exclusively, the handle should be closed by the same thread.
+     *
+     * @throws IllegalArgumentException if parent is null or timeout is invalid
+     */
+    public LockHandle acquireGroup(P parent, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(parent, "parent");
+        checkTimeout(timeAmount, timeUnit);
+        GroupLock group = group(parent);
+        long mode = group.acquire(GroupLock.EXCLUSIVE, boundedTimeout(timeAmount, timeUnit));
+        return () -> group.release(mode);
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = intend(group, GroupLock.INTENTION_EXCLUSIVE, timeAmount, timeUnit);
+        try {
+            delegate.executeWithLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = intend(group, GroupLock.INTENTION_EXCLUSIVE, timeAmount, timeUnit);
+        try {
+            return delegate.executeWithLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(deadline, "deadline");
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return executeWithLock(id, protectedCode);
+        }
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, arg, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = intend(group, GroupLock.INTENTION_EXCLUSIVE, timeAmount, timeUnit);
+        try {
+            return delegate.executeWithLock(id, arg, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, arg1, arg2, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = intend(group, GroupLock.INTENTION_EXCLUSIVE, timeAmount, timeUnit);
+        try {
+            delegate.executeWithLock(id, arg1, arg2, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        return acquire(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLock(id, false, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = tryIntend(group, GroupLock.INTENTION_EXCLUSIVE, timeAmount, timeUnit);
+        if (mode == GroupLock.NONE) {
+            return false;
+        }
+        try {
+            return delegate.tryExecuteWithLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = tryIntend(group, GroupLock.INTENTION_EXCLUSIVE, timeAmount, timeUnit);
+        if (mode == GroupLock.NONE) {
+            return valueIfNotLocked;
+        }
+        try {
+            return delegate.tryExecuteWithLock(id, protectedCode, valueIfNotLocked, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return tryLock(id, false, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = intend(group, GroupLock.INTENTION_SHARED, timeAmount, timeUnit);
+        try {
+            return delegate.executeWithReadLock(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithOptimisticRead(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    /**
+     * Optimistic reads take intention-shared lock of the parent, as group writes don't change versions of entity locks.
+     */
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = intend(group, GroupLock.INTENTION_SHARED, timeAmount, timeUnit);
+        try {
+            return delegate.executeWithOptimisticRead(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    @Override
+    public LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        return acquireRead(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLock(id, true, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLocks(ids, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    /**
+     * Takes intention-exclusive locks of all parents of the entities first, so with several parents
+     * the timeout may expire on a parent while entities are not waited for yet.
+     */
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(ids, "ids");
+        checkTimeout(timeAmount, timeUnit);
+        Set<P> parents = new LinkedHashSet<>();
+        for (T id : ids) {
+            checkNotNull(id, "id");
+            parents.add(parentOf.apply(id));
+        }
+        long start = System.nanoTime();
+        List<GroupLock> locked = new ArrayList<>(parents.size());
+        long[] modes = new long[parents.size()];
+        try {
+            for (P parent : parents) {
+                GroupLock group = group(parent);
+                modes[locked.size()] = intend(group, GroupLock.INTENTION_EXCLUSIVE, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+                locked.add(group);
+            }
+            return delegate.executeWithLocks(ids, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            for (int i = locked.size() - 1; i >= 0; i--) {
+                locked.get(i).release(modes[i]);
+            }
+        }
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeCombined(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long mode = intend(group, GroupLock.INTENTION_EXCLUSIVE, timeAmount, timeUnit);
+        try {
+            return delegate.executeCombined(id, protectedCode, remaining(start, timeAmount, timeUnit), TimeUnit.NANOSECONDS);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    private <R> R group(P parent, long lockMode, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(parent, "parent");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        GroupLock group = group(parent);
+        long mode;
+        try {
+            mode = group.acquire(lockMode, boundedTimeout(timeAmount, timeUnit));
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            group.release(mode);
+        }
+    }
+
+    /**
+     * Lock entity and intention lock of its parent.
+     *
+     * @return handle releasing both or null if they couldn't be locked in time
+     */
+    private LockHandle tryLock(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        long start = System.nanoTime();
+        GroupLock group = group(parentOf.apply(id));
+        long timeout = boundedTimeout(timeAmount, timeUnit);
+        long mode = group.tryAcquire(shared ? GroupLock.INTENTION_SHARED : GroupLock.INTENTION_EXCLUSIVE, timeout);
+        if (mode == GroupLock.NONE) {
+            return null;
+        }
+        LockHandle lock = null;
+        try {
+            lock = delegate.tryLock(id, shared, Math.max(timeout - (System.nanoTime() - start), 0), TimeUnit.NANOSECONDS);
+        } finally {
+            if (lock == null) {
+                group.release(mode);
+            }
+        }
+        if (lock == null) {
+            return null;
+        }
+        LockHandle entityLock = lock;
+        return () -> {
+            entityLock.close();
+            group.release(mode);
+        };
+    }
+
+    private long intend(GroupLock group, long lockMode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        try {
+            return group.acquire(lockMode, boundedTimeout(timeAmount, timeUnit));
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private long tryIntend(GroupLock group, long lockMode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        try {
+            return group.tryAcquire(lockMode, boundedTimeout(timeAmount, timeUnit));
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private GroupLock group(P parent) {
+        GroupLock group = groups.get(parent);
+        return group != null ? group : groups.computeIfAbsent(parent, key -> new GroupLock());
+    }
+
+    private static long remaining(long start, long timeAmount, TimeUnit timeUnit) {
+        return Math.max(timeUnit.toNanos(timeAmount) - (System.nanoTime() - start), 0);
+    }
+
+    /**
+     * Multiple granularity lock of a group: counts of intention-shared, intention-exclusive and shared holders
+     * and the exclusive flag share one word, so compatible modes are taken with one CAS. Waiting threads park
+     * on a condition which releases signal only when somebody waits.
+     */
+    static final class GroupLock {
+        static final long NONE = 0;
+        static final long INTENTION_SHARED = 1L;
+        static final long INTENTION_EXCLUSIVE = 1L << 21;
+        static final long SHARED = 1L << 42;
+        static final long EXCLUSIVE = Long.MIN_VALUE;
+        /**
+         * Modes given to the exclusive owner for locks it takes inside, they release nothing.
+         */
+        private static final long NONE_REENTERED = EXCLUSIVE | 1;
+        private static final long EXCLUSIVE_REENTERED = EXCLUSIVE | 2;
+
+        private static final long COUNT_MASK = (1L << 21) - 1;
+        private static final long INTENTION_EXCLUSIVE_MASK = COUNT_MASK * INTENTION_EXCLUSIVE;
+        private static final long SHARED_MASK = COUNT_MASK * SHARED;
+        private static final AtomicLongFieldUpdater<GroupLock> STATE =
+            AtomicLongFieldUpdater.newUpdater(GroupLock.class, "state");
+
+        private volatile long state;
+        private volatile int waiters;
+        /**
+         * Thread holding the exclusive lock, its entity locks of the group don't take intentions.
+         */
+        private volatile Thread owner;
+        private final ReentrantLock monitor = new ReentrantLock();
+        private final Condition released = monitor.newCondition();
+
+        /**
+         * @return mode to {@link #release(long)} with
+         * @throws LockTimeoutException if lock couldn't be acquired in time
+         */
+        long acquire(long mode, long timeoutNanos) throws LockTimeoutException, InterruptedException {
+            long acquired = tryAcquire(mode, timeoutNanos);
+            if (acquired == NONE) {
+                throw new LockTimeoutException();
+            }
+            return acquired;
+        }
+
+        /**
+         * @param timeoutNanos timeout, negative to fail without trying
+         * @return mode to {@link #release(long)} with, {@link #NONE} if lock couldn't be acquired in time
+         */
+        long tryAcquire(long mode, long timeoutNanos) throws InterruptedException {
+            if (owner == Thread.currentThread()) {
+                // everything is held already
+                return mode == EXCLUSIVE ? EXCLUSIVE_REENTERED : NONE_REENTERED;
+            }
+            if (timeoutNanos < 0) {
+                return NONE;
+            }
+            if (tryAcquireNow(mode)) {
+                return mode;
+            }
+            if (timeoutNanos == 0) {
+                return NONE;
+            }
+            return await(mode, timeoutNanos) ? mode : NONE;
+        }
+
+        void release(long mode) {
+            if (mode == NONE_REENTERED || mode == EXCLUSIVE_REENTERED) {
+                return;
+            }
+            if (mode == EXCLUSIVE) {
+                owner = null;
+                state = 0;
+            } else {
+                STATE.getAndAdd(this, -mode);
+            }
+            if (waiters != 0) {
+                monitor.lock();
+                try {
+                    released.signalAll();
+                } finally {
+                    monitor.unlock();
+                }
+            }
+        }
+
+        private boolean tryAcquireNow(long mode) {
+            if (mode == EXCLUSIVE) {
+                if (state == 0 && STATE.compareAndSet(this, 0, EXCLUSIVE)) {
+                    owner = Thread.currentThread();
+                    return true;
+                }
+                return false;
+            }
+            long conflicts = mode == INTENTION_SHARED ? EXCLUSIVE
+                : mode == INTENTION_EXCLUSIVE ? EXCLUSIVE | SHARED_MASK
+                : EXCLUSIVE | INTENTION_EXCLUSIVE_MASK;
+            for (;;) {
+                long current = state;
+                if ((current & conflicts) != 0) {
+                    return false;
+                }
+                if (STATE.compareAndSet(this, current, current + mode)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean await(long mode, long timeoutNanos) throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            monitor.lock();
+            try {
+                // counted before trying, so a release after the failed try signals
+                waiters++;
+                try {
+                    while (!tryAcquireNow(mode)) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        released.awaitNanos(remaining);
+                    }
+                    return true;
+                } finally {
+                    waiters--;
+                }
+            } finally {
+                monitor.unlock();
+            }
+        }
+    }
+}
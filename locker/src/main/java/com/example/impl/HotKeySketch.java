@@ -0,0 +1,117 @@
+package com.example.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded top-N counter of keys, a striped variant of the Space-Saving algorithm: keeps at most {@code capacity} keys,
+ * a new key replaces the least counted one and inherits its count.
+ * <p>
+ * Keys are split by hash between stripes, each a sketch of its own with its share of the capacity, so threads
+ * offering different keys rarely meet. An offer finding its stripe busy is dropped rather than waited for:
+ * the sketch is fed by contended waits, and it shouldn't add contention of its own. Because of dropped offers and
+ * uneven stripes the Space-Saving guarantee doesn't hold: a frequent key may be missed, and counts are only
+ * estimates, overestimated by inherited counts and underestimated by dropped offers. Keys offered often stay
+ * in practice, which is enough to point at hot entities, not to account for them.
+ */
+final class HotKeySketch<T> {
+    /**
+     * Smallest capacity of a stripe, smaller ones would replace their keys all the time.
+     */
+    private static final int MIN_STRIPE_CAPACITY = 8;
+
+    private final int capacity;
+    private final List<Stripe<T>> stripes;
+
+    HotKeySketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be > 0");
+        }
+        this.capacity = capacity;
+        int count = Integer.highestOneBit(Math.max(Math.min(2 * Runtime.getRuntime().availableProcessors(), capacity / MIN_STRIPE_CAPACITY), 1));
+        this.stripes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stripes.add(new Stripe<>((capacity + count - 1) / count));
+        }
+    }
+
+    void offer(T key) {
+        Stripe<T> stripe = stripes.get(Hashing.spread(key.hashCode()) & (stripes.size() - 1));
+        if (!stripe.lock.tryLock()) {
+            return;
+        }
+        try {
+            stripe.offer(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return kept keys with their estimated counts, most frequent first
+     */
+    Map<T, Long> top() {
+        List<Map.Entry<T, Long>> entries = new ArrayList<>();
+        for (Stripe<T> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.counts.forEach((key, count) -> entries.add(Map.entry(key, count[0])));
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        entries.sort(Map.Entry.<T, Long>comparingByValue().reversed());
+        Map<T, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<T, Long> entry : entries.subList(0, Math.min(capacity, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    void reset() {
+        for (Stripe<T> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.counts.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private static final class Stripe<T> {
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+        final Map<T, long[]> counts;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            this.counts = new HashMap<>(capacity * 2);
+        }
+
+        void offer(T key) {
+            long[] count = counts.get(key);
+            if (count != null) {
+                count[0]++;
+            } else if (counts.size() < capacity) {
+                counts.put(key, new long[]{1});
+            } else {
+                T minKey = null;
+                long min = Long.MAX_VALUE;
+                for (Map.Entry<T, long[]> entry : counts.entrySet()) {
+                    if (entry.getValue()[0] < min) {
+                        min = entry.getValue()[0];
+                        minKey = entry.getKey();
+                    }
+                }
+                count = counts.remove(minKey);
+                count[0]++;
+                counts.put(key, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+import static com.example.impl.AbstractEntityLocker.checkLocked;
+import static com.example.impl.AbstractEntityLocker.checkTimeout;
+import static com.example.impl.AbstractEntityLocker.executionFailure;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.example.Deadline;
+import com.example.EntityLockListener;
+import com.example.EntityLocker;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockRejectedException;
+
+/**
+ * Locker reporting events of another locker to a {@link EntityLockListener}, e.g. {@link LockMetrics}.
+ * Instrumentation is opt-in: a locker which is not wrapped pays nothing for it.
+ * <p>
+ * Every lock is first tried without waiting, only when it is busy the wait is timed and reported,
+ * so uncontended locking costs two {@link System#nanoTime()} calls for the hold time on top of the
+ * listener itself. Locking of several entities at once is always reported as waiting for each of them,
+ * optimistic reads and combined execution report only timeouts and failures.
+ */
+public final class InstrumentedEntityLocker<T> implements EntityLocker<T> {
+    private final AbstractEntityLocker<T> delegate;
+    private final EntityLockListener<? super T> listener;
+
+    public InstrumentedEntityLocker(AbstractEntityLocker<T> delegate, EntityLockListener<? super T> listener) {
+        checkNotNull(delegate, "delegate");
+        checkNotNull(listener, "listener");
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit));
+        long lockedAt = System.nanoTime();
+        try {
+            protectedCode.run();
+        } catch (Exception ex) {
+            throw failure(id, ex);
+        } finally {
+            unlock(id, lock, lockedAt);
+        }
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return call(id, checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit)), protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(deadline, "deadline");
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return executeWithLock(id, protectedCode);
+        }
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, arg, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit));
+        long lockedAt = System.nanoTime();
+        try {
+            return protectedCode.apply(arg);
+        } catch (Exception ex) {
+            throw failure(id, ex);
+        } finally {
+            unlock(id, lock, lockedAt);
+        }
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, arg1, arg2, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = checkLocked(tryLockOrFail(id, false, timeAmount, timeUnit));
+        long lockedAt = System.nanoTime();
+        try {
+            protectedCode.accept(arg1, arg2);
+        } catch (Exception ex) {
+            throw failure(id, ex);
+        } finally {
+            unlock(id, lock, lockedAt);
+        }
+    }
+
+    @Override
+    public LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        return acquire(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return handle(id, checkLocked(tryLock(id, false, timeAmount, timeUnit)));
+    }
+
+    @Override
+    public boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        if (lock == null) {
+            return false;
+        }
+        long lockedAt = System.nanoTime();
+        try {
+            protectedCode.run();
+        } catch (Exception ex) {
+            throw failure(id, ex);
+        } finally {
+            unlock(id, lock, lockedAt);
+        }
+        return true;
+    }
+
+    @Override
+    public <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        return lock != null ? call(id, lock, protectedCode) : valueIfNotLocked;
+    }
+
+    @Override
+    public LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        LockHandle lock = tryLock(id, false, timeAmount, timeUnit);
+        return lock != null ? handle(id, lock) : null;
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return call(id, checkLocked(tryLockOrFail(id, true, timeAmount, timeUnit)), protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithOptimisticRead(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        long start = System.nanoTime();
+        try {
+            return delegate.executeWithOptimisticRead(id, protectedCode, timeAmount, timeUnit);
+        } catch (TimeoutException ex) {
+            listener.onWait(id);
+            notAcquired(id, System.nanoTime() - start, ex);
+            throw ex;
+        } catch (ExecutionException ex) {
+            listener.onFailure(id, (Exception) ex.getCause());
+            throw ex;
+        }
+    }
+
+    @Override
+    public LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        return acquireRead(id, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        return handle(id, checkLocked(tryLock(id, true, timeAmount, timeUnit)));
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLocks(ids, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(ids, "ids");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        for (T id : ids) {
+            checkNotNull(id, "id");
+        }
+        // every entity is locked once, so it's reported once
+        Collection<T> distinct = new LinkedHashSet<>(ids);
+        long start = System.nanoTime();
+        long[] lockedAt = new long[1];
+        for (T id : distinct) {
+            listener.onWait(id);
+        }
+        try {
+            return delegate.executeWithLocks(distinct, () -> {
+                lockedAt[0] = System.nanoTime();
+                for (T id : distinct) {
+                    listener.onAcquire(id, Math.max(lockedAt[0] - start, 1));
+                }
+                return protectedCode.call();
+            }, timeAmount, timeUnit);
+        } catch (ExecutionException ex) {
+            if (lockedAt[0] == 0) {
+                // interrupted while locking
+                notAcquired(distinct, start, (Exception) ex.getCause());
+            } else {
+                for (T id : distinct) {
+                    listener.onFailure(id, (Exception) ex.getCause());
+                }
+            }
+            throw ex;
+        } catch (TimeoutException ex) {
+            notAcquired(distinct, start, ex);
+            throw ex;
+        } finally {
+            if (lockedAt[0] != 0) {
+                long holdNanos = System.nanoTime() - lockedAt[0];
+                for (T id : distinct) {
+                    listener.onRelease(id, holdNanos);
+                }
+            }
+        }
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeCombined(id, protectedCode, delegate.defaultTimeAmount(), delegate.defaultTimeUnit());
+    }
+
+    /**
+     * Combined code is run by whichever thread holds the lock, so only timeouts and failures are reported.
+     */
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        long start = System.nanoTime();
+        try {
+            return delegate.executeCombined(id, protectedCode, timeAmount, timeUnit);
+        } catch (TimeoutException ex) {
+            listener.onWait(id);
+            notAcquired(id, System.nanoTime() - start, ex);
+            throw ex;
+        } catch (ExecutionException ex) {
+            listener.onFailure(id, (Exception) ex.getCause());
+            throw ex;
+        }
+    }
+
+    private void notAcquired(Collection<T> ids, long start, Exception cause) {
+        long waitNanos = System.nanoTime() - start;
+        for (T id : ids) {
+            notAcquired(id, waitNanos, cause);
+        }
+    }
+
+    /**
+     * Only plain timeouts are reported as such, interrupts and rejections end the wait early.
+     */
+    private void notAcquired(T id, long waitNanos, Exception cause) {
+        if (cause instanceof TimeoutException && !(cause instanceof LockRejectedException)) {
+            listener.onTimeout(id, waitNanos);
+        } else {
+            listener.onAbort(id, waitNanos, cause);
+        }
+    }
+
+    /**
+     * Lock trying it without waiting first, so that only contended locking is timed.
+     */
+    private LockHandle tryLock(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        LockHandle lock = delegate.tryLock(id, shared, 0, TimeUnit.NANOSECONDS);
+        if (lock != null) {
+            listener.onAcquire(id, 0);
+            return lock;
+        }
+        listener.onWait(id);
+        long start = System.nanoTime();
+        try {
+            lock = timeAmount == 0 ? null : delegate.tryLock(id, shared, timeAmount, timeUnit);
+        } catch (InterruptedException | RuntimeException ex) {
+            listener.onAbort(id, Math.max(System.nanoTime() - start, 1), ex);
+            throw ex;
+        }
+        long waitNanos = Math.max(System.nanoTime() - start, 1);
+        if (lock != null) {
+            listener.onAcquire(id, waitNanos);
+        } else {
+            listener.onTimeout(id, waitNanos);
+        }
+        return lock;
+    }
+
+    private LockHandle tryLockOrFail(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        try {
+            return tryLock(id, shared, timeAmount, timeUnit);
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private <R> R call(T id, LockHandle lock, Callable<R> protectedCode) throws ExecutionException {
+        long lockedAt = System.nanoTime();
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw failure(id, ex);
+        } finally {
+            unlock(id, lock, lockedAt);
+        }
+    }
+
+    private ExecutionException failure(T id, Exception ex) {
+        listener.onFailure(id, ex);
+        return executionFailure(ex);
+    }
+
+    private void unlock(T id, LockHandle lock, long lockedAt) {
+        lock.close();
+        listener.onRelease(id, System.nanoTime() - lockedAt);
+    }
+
+    private LockHandle handle(T id, LockHandle lock) {
+        long lockedAt = System.nanoTime();
+        return () -> unlock(id, lock, lockedAt);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.example.AcquisitionPolicy;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockWrapper;
+
+/**
+ * Locker for entities with primitive int ids, see {@link LongEntityLocker}.
+ */
+public final class IntEntityLocker extends AbstractEntityLocker<Integer> {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private final LongEntityLocker delegate;
+
+    public IntEntityLocker() {
+        this(Long.MAX_VALUE, TimeUnit.MILLISECONDS, DEFAULT_CAPACITY);
+    }
+
+    public IntEntityLocker(long lockTimeout, TimeUnit lockTimeoutUnit) {
+        this(lockTimeout, lockTimeoutUnit, DEFAULT_CAPACITY);
+    }
+
+    public IntEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int capacity) {
+        this(defaultTimeAmount, timeUnit, capacity, AcquisitionPolicy.PARK);
+    }
+
+    public IntEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int capacity, AcquisitionPolicy acquisitionPolicy) {
+        super(defaultTimeAmount, timeUnit, acquisitionPolicy);
+        this.delegate = new LongEntityLocker(defaultTimeAmount, timeUnit, capacity, acquisitionPolicy);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Runnable)} without boxing of id.
+     */
+    public void executeWithLock(int id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        delegate.executeWithLock((long) id, protectedCode);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Runnable, long, TimeUnit)} without boxing of id.
+     */
+    public void executeWithLock(int id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        delegate.executeWithLock((long) id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Callable)} without boxing of id.
+     */
+    public <R> R executeWithLock(int id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return delegate.executeWithLock((long) id, protectedCode);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Callable, long, TimeUnit)} without boxing of id.
+     */
+    public <R> R executeWithLock(int id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return delegate.executeWithLock((long) id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Same as {@link #acquire(Object)} without boxing of id.
+     */
+    public LockHandle acquire(int id) throws TimeoutException, InterruptedException {
+        return delegate.acquire((long) id);
+    }
+
+    /**
+     * Same as {@link #acquire(Object, long, TimeUnit)} without boxing of id.
+     */
+    public LockHandle acquire(int id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        return delegate.acquire((long) id, timeAmount, timeUnit);
+    }
+
+    @Override
+    protected LockWrapper retain(Integer id) {
+        return delegate.retain((long) id.intValue());
+    }
+
+    @Override
+    protected int maxLiveLocks() {
+        return delegate.maxLiveLocks();
+    }
+
+    @Override
+    protected LockWrapper retain(Integer id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        return delegate.retain((long) id.intValue(), timeAmount, timeUnit);
+    }
+}
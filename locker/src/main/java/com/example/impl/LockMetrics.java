@@ -0,0 +1,227 @@
+package com.example.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.example.EntityLockListener;
+import com.example.LockRejectedException;
+
+/**
+ * Contention metrics of a locker, to be passed to {@link InstrumentedEntityLocker}.
+ * <p>
+ * Counters and histograms are updated on every acquisition, per entity state is only touched when a lock
+ * is contended: current waiters, counted in stripes by entity hash, and a bounded sketch of the most contended entities.
+ */
+public final class LockMetrics<T> implements EntityLockListener<T>, LockMetricsMXBean {
+    private static final int DEFAULT_HOT_KEYS = 16;
+    private static final int WAITER_STRIPES = 256;
+    /**
+     * Waiter counters are a cache line apart, so threads waiting for different entities don't share lines.
+     */
+    private static final int WAITER_PADDING = 16;
+
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder interrupts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram holdTimes = new LatencyHistogram();
+    private final AtomicIntegerArray waiters = new AtomicIntegerArray(WAITER_STRIPES * WAITER_PADDING);
+    private final HotKeySketch<T> hotKeys;
+
+    public LockMetrics() {
+        this(DEFAULT_HOT_KEYS);
+    }
+
+    /**
+     * @param hotKeys number of most contended entities to track
+     */
+    public LockMetrics(int hotKeys) {
+        this.hotKeys = new HotKeySketch<>(hotKeys);
+    }
+
+    @Override
+    public void onWait(T id) {
+        contended.increment();
+        waiters.incrementAndGet(waiterIndex(id));
+        hotKeys.offer(id);
+    }
+
+    @Override
+    public void onAcquire(T id, long waitNanos) {
+        acquires.increment();
+        waitTimes.record(waitNanos);
+        if (waitNanos != 0) {
+            stopWaiting(id);
+        }
+    }
+
+    @Override
+    public void onTimeout(T id, long waitNanos) {
+        timeouts.increment();
+        waitTimes.record(waitNanos);
+        stopWaiting(id);
+    }
+
+    /**
+     * Aborted waits are counted by their cause, their wait times aren't recorded: a rejection doesn't wait at all.
+     */
+    @Override
+    public void onAbort(T id, long waitNanos, Exception cause) {
+        if (cause instanceof LockRejectedException) {
+            rejections.increment();
+        } else if (cause instanceof InterruptedException) {
+            interrupts.increment();
+        }
+        stopWaiting(id);
+    }
+
+    @Override
+    public void onRelease(T id, long holdNanos) {
+        holdTimes.record(holdNanos);
+    }
+
+    @Override
+    public void onFailure(T id, Exception failure) {
+        failures.increment();
+    }
+
+    private void stopWaiting(T id) {
+        waiters.decrementAndGet(waiterIndex(id));
+    }
+
+    private static int waiterIndex(Object id) {
+        return (Hashing.spread(id.hashCode()) & (WAITER_STRIPES - 1)) * WAITER_PADDING;
+    }
+
+    /**
+     * @return number of threads waiting for the entity right now, including waiters of entities
+     * sharing its stripe, so it's exact only as long as few entities are contended at once
+     */
+    public int waiters(T id) {
+        return waiters.get(waiterIndex(id));
+    }
+
+    /**
+     * @return most contended entities with estimated numbers of contended acquisitions, most contended first
+     */
+    public Map<T, Long> hotKeys() {
+        return hotKeys.top();
+    }
+
+    public LatencyHistogram waitTimes() {
+        return waitTimes;
+    }
+
+    public LatencyHistogram holdTimes() {
+        return holdTimes;
+    }
+
+    /**
+     * Register metrics in platform MBean server as {@code com.example:type=EntityLocker,name=<name>}.
+     *
+     * @return name of registered MBean, to unregister it with
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.example:type=EntityLocker,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquires.sum();
+    }
+
+    @Override
+    public long getContendedCount() {
+        return contended.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getInterruptCount() {
+        return interrupts.sum();
+    }
+
+    @Override
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        int count = 0;
+        for (int i = 0; i < WAITER_STRIPES; i++) {
+            count += waiters.get(i * WAITER_PADDING);
+        }
+        return count;
+    }
+
+    @Override
+    public long getWaitTimeP50() {
+        return waitTimes.percentile(50);
+    }
+
+    @Override
+    public long getWaitTimeP99() {
+        return waitTimes.percentile(99);
+    }
+
+    @Override
+    public long getWaitTimeMax() {
+        return waitTimes.max();
+    }
+
+    @Override
+    public long getHoldTimeP50() {
+        return holdTimes.percentile(50);
+    }
+
+    @Override
+    public long getHoldTimeP99() {
+        return holdTimes.percentile(99);
+    }
+
+    @Override
+    public long getHoldTimeMax() {
+        return holdTimes.max();
+    }
+
+    @Override
+    public Map<String, Long> getHotKeys() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        hotKeys.top().forEach((id, count) -> result.put(String.valueOf(id), count));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        acquires.reset();
+        contended.reset();
+        timeouts.reset();
+        interrupts.reset();
+        rejections.reset();
+        failures.reset();
+        waitTimes.reset();
+        holdTimes.reset();
+        hotKeys.reset();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.impl;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link LockMetrics}, times are in nanoseconds.
+ */
+public interface LockMetricsMXBean {
+
+    long getAcquireCount();
+
+    long getContendedCount();
+
+    long getTimeoutCount();
+
+    long getInterruptCount();
+
+    long getRejectionCount();
+
+    long getFailureCount();
+
+    int getWaitingThreads();
+
+    long getWaitTimeP50();
+
+    long getWaitTimeP99();
+
+    long getWaitTimeMax();
+
+    long getHoldTimeP50();
+
+    long getHoldTimeP99();
+
+    long getHoldTimeMax();
+
+    /**
+     * @return most contended entities with estimated numbers of contended acquisitions
+     */
+    Map<String, Long> getHotKeys();
+
+    void reset();
+}
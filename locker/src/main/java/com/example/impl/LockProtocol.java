@@ -0,0 +1,92 @@
+package com.example.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format of {@link LockServer} and {@link RemoteEntityLocker}. Every message is a frame of its length
+ * followed by an operation (or status) byte, an id and operation arguments:
+ * <ul>
+ *     <li>{@code ACQUIRE id shared timeoutNanos count (length utf8)*} locks all keys at once, answered with
+ *     {@code GRANTED id} or {@code TIMED_OUT id}; negative timeout waits without limit</li>
+ *     <li>{@code RELEASE id} unlocks keys of an acquire, or cancels it if it still waits, not answered</li>
+ *     <li>{@code PING 0} renews the lease of the connection, not answered</li>
+ *     <li>{@code HELLO leaseMillis} is sent by the server to a new connection</li>
+ * </ul>
+ * Ids are chosen by the client and are unique within its connection. The server closes connections sending
+ * malformed frames or reusing the id of an acquire in use.
+ */
+final class LockProtocol {
+    static final byte ACQUIRE = 1;
+    static final byte RELEASE = 2;
+    static final byte PING = 3;
+
+    static final byte GRANTED = 1;
+    static final byte TIMED_OUT = 2;
+    static final byte HELLO = 3;
+
+    /**
+     * Length of a frame without arguments, including the length itself.
+     */
+    static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+    static final int MAX_FRAME_SIZE = 1 << 20;
+    /**
+     * Timeout of acquire waiting without limit.
+     */
+    static final long NO_TIMEOUT = -1;
+
+    private LockProtocol() {
+    }
+
+    static ByteBuffer acquire(long id, boolean shared, long timeoutNanos, byte[][] keys) {
+        int size = HEADER_SIZE + 1 + Long.BYTES + Integer.BYTES;
+        for (byte[] key : keys) {
+            size += Integer.BYTES + key.length;
+        }
+        if (size > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("keys are too long for one request");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.putInt(size - Integer.BYTES).put(ACQUIRE).putLong(id)
+            .put((byte) (shared ? 1 : 0)).putLong(timeoutNanos).putInt(keys.length);
+        for (byte[] key : keys) {
+            frame.putInt(key.length).put(key);
+        }
+        return frame.flip();
+    }
+
+    static ByteBuffer message(byte type, long id) {
+        return put(ByteBuffer.allocate(HEADER_SIZE), type, id).flip();
+    }
+
+    static ByteBuffer put(ByteBuffer buffer, byte type, long id) {
+        return buffer.putInt(HEADER_SIZE - Integer.BYTES).put(type).putLong(id);
+    }
+
+    static byte[] encode(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read keys of an acquire frame limited to its end.
+     *
+     * @throws java.nio.BufferUnderflowException if the frame ends before its keys
+     * @throws IllegalArgumentException if the key count or a key length doesn't fit into the frame
+     */
+    static String[] decodeKeys(ByteBuffer frame) {
+        int count = frame.getInt();
+        if (count < 0 || count > frame.remaining() / Integer.BYTES) {
+            throw new IllegalArgumentException("malformed key count " + count);
+        }
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            int length = frame.getInt();
+            if (length < 0 || length > frame.remaining()) {
+                throw new IllegalArgumentException("malformed key length " + length);
+            }
+            keys[i] = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+            frame.position(frame.position() + length);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,514 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock server of {@link RemoteEntityLocker} clients, so processes of several hosts can lock the same entities.
+ * <p>
+ * A single event loop thread serves all connections: it reads pipelined requests, updates the lock table
+ * and writes every connection's responses of a loop pass in one go. The table is confined to the loop, so it needs
+ * no locking; like {@link StripingEntityLocker} it keeps only entries of locked or waited for keys. Waiters of a key
+ * are granted in arrival order, requests for several keys wait in the queues of all of them, which are consistent
+ * with arrival order too, so they don't deadlock.
+ * <p>
+ * Locks are owned by connections. A connection holds a lease renewed by any message of the client: once the client
+ * is silent longer than the lease timeout, or the connection is closed, all its locks are released and its waits
+ * cancelled. So are locks of clients breaking the protocol or not reading their responses.
+ */
+public final class LockServer implements AutoCloseable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Limit of responses buffered for a client which doesn't read them.
+     */
+    private static final int MAX_OUTPUT_SIZE = 1 << 20;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final long leaseNanos;
+    private final Thread loop;
+    private final Map<String, Entry> table = new HashMap<>();
+    /**
+     * Deadlines of timed waits. A request granted or cancelled before its deadline is only marked done,
+     * removing it from the middle of the queue would take a linear search.
+     */
+    private final PriorityQueue<Request> deadlines = new PriorityQueue<>((first, second) -> Long.compare(first.deadline, second.deadline));
+    private int doneDeadlines;
+    private final List<Connection> connections = new ArrayList<>();
+    private final ArrayDeque<String> wakeups = new ArrayDeque<>();
+    private volatile boolean closed;
+
+    /**
+     * Bind to the address and start serving on a daemon thread.
+     *
+     * @param address address to listen on, port 0 for any free port
+     * @param leaseTimeout time a silent client keeps its locks
+     */
+    public LockServer(InetSocketAddress address, long leaseTimeout, TimeUnit timeUnit) throws IOException {
+        checkNotNull(address, "address");
+        checkNotNull(timeUnit, "timeUnit");
+        if (leaseTimeout <= 0) {
+            throw new IllegalArgumentException("lease timeout should be > 0");
+        }
+        this.leaseNanos = timeUnit.toNanos(leaseTimeout);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            serverChannel.close();
+            selector.close();
+            throw ex;
+        }
+        this.loop = new Thread(this::serve, "entity-lock-server");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Stop serving, connections are closed and all locks are released.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        long nextLeaseCheck = System.nanoTime() + leaseNanos;
+        try {
+            while (!closed) {
+                long now = System.nanoTime();
+                long wait = nextLeaseCheck - now;
+                Request first = firstDeadline();
+                if (first != null) {
+                    wait = Math.min(wait, first.deadline - now);
+                }
+                if (wait > 0) {
+                    selector.select(Math.max(TimeUnit.NANOSECONDS.toMillis(wait), 1));
+                } else {
+                    selector.selectNow();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                now = System.nanoTime();
+                expireWaits(now);
+                if (now - nextLeaseCheck >= 0) {
+                    expireLeases(now);
+                    nextLeaseCheck = now + Math.max(leaseNanos / 4, 1);
+                }
+                for (int i = connections.size() - 1; i >= 0; i--) {
+                    Connection connection = connections.get(i);
+                    if (connection.overflowed) {
+                        disconnect(connection);
+                    }
+                }
+                for (int i = connections.size() - 1; i >= 0; i--) {
+                    flush(connections.get(i));
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            // stop serving, locks die with connections
+        } finally {
+            for (int i = connections.size() - 1; i >= 0; i--) {
+                disconnect(connections.get(i));
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+                // nothing to do on shutdown
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+        connection.send(LockProtocol.HELLO, TimeUnit.NANOSECONDS.toMillis(leaseNanos));
+    }
+
+    private void read(Connection connection) {
+        ByteBuffer input = connection.input;
+        int read;
+        try {
+            read = connection.channel.read(input);
+        } catch (IOException ex) {
+            read = -1;
+        }
+        if (read < 0) {
+            disconnect(connection);
+            return;
+        }
+        connection.lastSeen = System.nanoTime();
+        input.flip();
+        while (input.remaining() >= Integer.BYTES) {
+            int length = input.getInt(input.position());
+            if (length < LockProtocol.HEADER_SIZE - Integer.BYTES || length > LockProtocol.MAX_FRAME_SIZE) {
+                disconnect(connection);
+                return;
+            }
+            if (input.remaining() < Integer.BYTES + length) {
+                if (input.capacity() < Integer.BYTES + length) {
+                    ByteBuffer larger = ByteBuffer.allocate(Integer.BYTES + length);
+                    larger.put(input);
+                    connection.input = larger;
+                    return;
+                }
+                break;
+            }
+            int end = input.position() + Integer.BYTES + length;
+            // fields of the frame can't be read past its end
+            ByteBuffer frame = input.duplicate();
+            frame.limit(end).position(input.position() + Integer.BYTES);
+            input.position(end);
+            if (!handle(connection, frame)) {
+                disconnect(connection);
+                return;
+            }
+        }
+        input.compact();
+    }
+
+    /**
+     * @return false if the frame is malformed or breaks the protocol, so the connection should be closed
+     */
+    private boolean handle(Connection connection, ByteBuffer frame) {
+        byte type = frame.get();
+        long id = frame.getLong();
+        switch (type) {
+            case LockProtocol.ACQUIRE:
+                boolean shared;
+                long timeoutNanos;
+                String[] keys;
+                try {
+                    shared = frame.get() != 0;
+                    timeoutNanos = frame.getLong();
+                    keys = LockProtocol.decodeKeys(frame);
+                } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                    return false;
+                }
+                if (connection.requests.containsKey(id)) {
+                    // the request in use could be released only by disconnecting otherwise
+                    return false;
+                }
+                acquire(connection, id, shared, timeoutNanos, keys);
+                return true;
+            case LockProtocol.RELEASE:
+                release(connection, id);
+                return true;
+            case LockProtocol.PING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void acquire(Connection connection, long id, boolean shared, long timeoutNanos, String[] keys) {
+        Set<String> distinct = new LinkedHashSet<>(Arrays.asList(keys));
+        Request request = new Request(connection, id, shared, distinct.toArray(new String[0]));
+        connection.requests.put(id, request);
+        if (grantable(request)) {
+            grant(request);
+            return;
+        }
+        if (timeoutNanos == 0) {
+            finish(request, LockProtocol.TIMED_OUT);
+            return;
+        }
+        for (String key : request.keys) {
+            table.computeIfAbsent(key, ignored -> new Entry()).waiters.add(request);
+        }
+        if (timeoutNanos > 0) {
+            request.deadline = System.nanoTime() + Math.min(timeoutNanos, Long.MAX_VALUE >> 1);
+            deadlines.add(request);
+        }
+    }
+
+    private void release(Connection connection, long id) {
+        Request request = connection.requests.remove(id);
+        if (request != null) {
+            unlockOrCancel(request);
+            wakeWaiters();
+        }
+    }
+
+    /**
+     * @return whether every key of the request is compatible with its holders and no earlier request waits for it
+     */
+    private boolean grantable(Request request) {
+        for (String key : request.keys) {
+            Entry entry = table.get(key);
+            if (entry == null) {
+                continue;
+            }
+            Request first = entry.waiters.peekFirst();
+            if (first != null && first != request) {
+                return false;
+            }
+            if (entry.exclusiveHolder != null || !request.shared && entry.sharedHolders != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grant(Request request) {
+        for (String key : request.keys) {
+            Entry entry = table.computeIfAbsent(key, ignored -> new Entry());
+            entry.waiters.remove(request);
+            if (request.shared) {
+                entry.sharedHolders++;
+            } else {
+                entry.exclusiveHolder = request;
+            }
+            // the next waiter may be compatible too
+            wakeups.add(key);
+        }
+        request.granted = true;
+        if (request.deadline != 0) {
+            done(request);
+        }
+        request.connection.send(LockProtocol.GRANTED, request.id);
+    }
+
+    private void finish(Request request, byte status) {
+        request.connection.requests.remove(request.id);
+        request.connection.send(status, request.id);
+    }
+
+    private void unlockOrCancel(Request request) {
+        for (String key : request.keys) {
+            Entry entry = table.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (!request.granted) {
+                entry.waiters.remove(request);
+            } else if (request.shared) {
+                entry.sharedHolders--;
+            } else {
+                entry.exclusiveHolder = null;
+            }
+            wakeups.add(key);
+        }
+        if (!request.granted && request.deadline != 0) {
+            done(request);
+        }
+    }
+
+    /**
+     * Grant first waiters of keys which changed, and forget keys nobody needs anymore.
+     */
+    private void wakeWaiters() {
+        String key;
+        while ((key = wakeups.poll()) != null) {
+            Entry entry = table.get(key);
+            if (entry == null) {
+                continue;
+            }
+            Request first = entry.waiters.peekFirst();
+            if (first != null && grantable(first)) {
+                grant(first);
+            } else if (first == null && entry.exclusiveHolder == null && entry.sharedHolders == 0) {
+                table.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Mark the queued deadline of a request which doesn't wait anymore. Once most of the queue is done,
+     * it's purged at once, so requests granted long before their deadlines don't pile up.
+     */
+    private void done(Request request) {
+        request.done = true;
+        if (++doneDeadlines > deadlines.size() / 2) {
+            deadlines.removeIf(queued -> queued.done);
+            doneDeadlines = 0;
+        }
+    }
+
+    /**
+     * @return request with the earliest deadline that still waits, done ones before it are dropped
+     */
+    private Request firstDeadline() {
+        Request first;
+        while ((first = deadlines.peek()) != null && first.done) {
+            deadlines.poll();
+            doneDeadlines--;
+        }
+        return first;
+    }
+
+    private void expireWaits(long now) {
+        Request request;
+        while ((request = firstDeadline()) != null && request.deadline - now <= 0) {
+            deadlines.poll();
+            request.deadline = 0;
+            unlockOrCancel(request);
+            finish(request, LockProtocol.TIMED_OUT);
+        }
+        wakeWaiters();
+    }
+
+    private void expireLeases(long now) {
+        for (int i = connections.size() - 1; i >= 0; i--) {
+            Connection connection = connections.get(i);
+            if (now - connection.lastSeen > leaseNanos) {
+                disconnect(connection);
+            }
+        }
+    }
+
+    private void flush(Connection connection) {
+        ByteBuffer output = connection.output;
+        if (output.position() == 0 || !connection.key.isValid() || connection.overflowed) {
+            return;
+        }
+        output.flip();
+        try {
+            connection.channel.write(output);
+        } catch (IOException ex) {
+            disconnect(connection);
+            return;
+        }
+        output.compact();
+        connection.key.interestOps(output.position() == 0 ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void disconnect(Connection connection) {
+        if (!connections.remove(connection)) {
+            return;
+        }
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+            // locks are released anyway
+        }
+        for (Request request : connection.requests.values()) {
+            unlockOrCancel(request);
+        }
+        connection.requests.clear();
+        wakeWaiters();
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final Map<Long, Request> requests = new HashMap<>();
+        SelectionKey key;
+        ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        ByteBuffer output = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long lastSeen = System.nanoTime();
+        /**
+         * Whether the client doesn't read its responses, so it's disconnected at the end of the loop pass.
+         */
+        boolean overflowed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void send(byte status, long id) {
+            if (overflowed) {
+                return;
+            }
+            if (output.remaining() < LockProtocol.HEADER_SIZE) {
+                if (output.capacity() >= MAX_OUTPUT_SIZE) {
+                    overflowed = true;
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(output.capacity() * 2, MAX_OUTPUT_SIZE));
+                output.flip();
+                output = larger.put(output);
+            }
+            LockProtocol.put(output, status, id);
+        }
+    }
+
+    private static final class Request {
+        final Connection connection;
+        final long id;
+        final boolean shared;
+        final String[] keys;
+        boolean granted;
+        /**
+         * Time the wait expires, zero without limit.
+         */
+        long deadline;
+        /**
+         * Granted or cancelled while its deadline is queued.
+         */
+        boolean done;
+
+        Request(Connection connection, long id, boolean shared, String[] keys) {
+            this.connection = connection;
+            this.id = id;
+            this.shared = shared;
+            this.keys = keys;
+        }
+    }
+
+    private static final class Entry {
+        Request exclusiveHolder;
+        int sharedHolders;
+        final ArrayDeque<Request> waiters = new ArrayDeque<>();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.example.AcquisitionPolicy;
+import com.example.Deadline;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockWrapper;
+
+/**
+ * Locker for entities with primitive long ids. Locks live in a fixed size open addressing table
+ * ({@link LongLockTable}) keyed by the id itself, so {@code long} overloads neither box ids
+ * nor allocate table nodes. Slots are reused once no thread uses them; when all slots an id can be
+ * placed in are taken, locking waits for a free one within the lock timeout. A thread already holding
+ * locks of this locker fails with a timeout at once instead, as it could wait for its own slots, and
+ * {@code executeWithLocks} of more entities than fit a probe window of the table is rejected with
+ * {@link com.example.LockRejectedException}.
+ */
+public final class LongEntityLocker extends AbstractEntityLocker<Long> {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private final LongLockTable locks;
+
+    public LongEntityLocker() {
+        this(Long.MAX_VALUE, TimeUnit.MILLISECONDS, DEFAULT_CAPACITY);
+    }
+
+    public LongEntityLocker(long lockTimeout, TimeUnit lockTimeoutUnit) {
+        this(lockTimeout, lockTimeoutUnit, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param defaultTimeAmount default time amount for timeout
+     * @param timeUnit default time unit for timeout
+     * @param capacity number of lock slots, rounded up to a power of two; should be well above
+     * the number of concurrently locked entities
+     */
+    public LongEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int capacity) {
+        this(defaultTimeAmount, timeUnit, capacity, AcquisitionPolicy.PARK);
+    }
+
+    public LongEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int capacity, AcquisitionPolicy acquisitionPolicy) {
+        super(defaultTimeAmount, timeUnit, acquisitionPolicy);
+        this.locks = new LongLockTable(capacity);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Runnable)} without boxing of id.
+     *
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    public void executeWithLock(long id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        run(lock(id, defaultTimeAmount(), defaultTimeUnit()), protectedCode);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Runnable, long, TimeUnit)} without boxing of id.
+     *
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    public void executeWithLock(long id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        run(lock(id, timeAmount, timeUnit), protectedCode);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Callable)} without boxing of id.
+     *
+     * @throws IllegalArgumentException if protectedCode is null
+     */
+    public <R> R executeWithLock(long id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        return call(lock(id, defaultTimeAmount(), defaultTimeUnit()), protectedCode);
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Callable, long, TimeUnit)} without boxing of id.
+     *
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    public <R> R executeWithLock(long id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        return call(lock(id, timeAmount, timeUnit), protectedCode);
+    }
+
+    /**
+     * Same as {@link #acquire(Object)} without boxing of id.
+     */
+    public LockHandle acquire(long id) throws TimeoutException, InterruptedException {
+        return checkLocked(tryLock(id, defaultTimeAmount(), defaultTimeUnit()));
+    }
+
+    /**
+     * Same as {@link #acquire(Object, long, TimeUnit)} without boxing of id.
+     *
+     * @throws IllegalArgumentException if time unit is null
+     * @throws IllegalArgumentException if time amount is less than zero
+     */
+    public LockHandle acquire(long id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        checkTimeout(timeAmount, timeUnit);
+        return checkLocked(tryLock(id, timeAmount, timeUnit));
+    }
+
+    @Override
+    protected LockWrapper retain(Long id) {
+        return locks.retain(id.longValue());
+    }
+
+    @Override
+    protected LockWrapper retain(Long id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        return locks.retain(id.longValue(), timeAmount, timeUnit);
+    }
+
+    @Override
+    protected int maxLiveLocks() {
+        return locks.maxLiveLocks();
+    }
+
+    LockWrapper retain(long id) {
+        return locks.retain(id);
+    }
+
+    LockWrapper retain(long id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        return locks.retain(id, timeAmount, timeUnit);
+    }
+
+    private LockHandle lock(long id, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        LockHandle lock;
+        try {
+            lock = tryLock(id, timeAmount, timeUnit);
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+        return checkLocked(lock);
+    }
+
+    private LockHandle tryLock(long id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        if (Deadline.current() != null) {
+            timeAmount = boundedTimeout(timeAmount, timeUnit);
+            timeUnit = TimeUnit.NANOSECONDS;
+            if (timeAmount < 0) {
+                return null;
+            }
+        }
+        LockWrapper lock = locks.retain(id);
+        if (lock == null) {
+            // table is crowded, wait for a slot within the same timeout
+            long start = System.nanoTime();
+            lock = locks.retain(id, timeAmount, timeUnit);
+            if (lock == null) {
+                return null;
+            }
+            timeAmount = Math.max(timeUnit.toNanos(timeAmount) - (System.nanoTime() - start), 0);
+            timeUnit = TimeUnit.NANOSECONDS;
+        }
+        return tryLock(lock, false, timeAmount, timeUnit);
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.example.LockWrapper;
+
+/**
+ * Open addressing table of lock slots keyed by primitive long ids.
+ * <p>
+ * Every slot has a preallocated lock, a key and a usage count. A slot with positive count is bound to its key,
+ * a slot with zero count is free. Lookup scans a short probe window starting at the key's home slot
+ * and joins a bound slot with CAS on its count, then validates the key, because the slot could have been
+ * freed and bound to another key in between. Binding a new slot to a key is done under a tiny spin guard
+ * of the key's home slot, so a key is never bound to two slots at once.
+ * When the probe window has no free slot, callers wait until some slot is released, unless they already use
+ * slots of the table: the slots they would wait for could be their own, or ones used by threads waiting for theirs.
+ * Any {@link #maxLiveLocks()} ids fit their windows at once, so a thread can always use that many slots.
+ */
+final class LongLockTable {
+    private static final int NOT_FOUND = -1;
+    private static final int FREE = 0;
+    private static final int CLAIMED = -1;
+    private static final int MAX_PROBES = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final long FULL_TABLE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final AtomicLongArray keys;
+    private final AtomicIntegerArray counts;
+    private final AtomicIntegerArray guards;
+    private final Slot[] slots;
+    private final int mask;
+    private final int probes;
+    /**
+     * Number of slots used by the thread, a slot released by another thread still counts for the one using it.
+     */
+    private final ThreadLocal<int[]> retained = ThreadLocal.withInitial(() -> new int[1]);
+
+    LongLockTable(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity should be greater than 0");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(Math.min(capacity - 1, MAX_CAPACITY - 1)) << 1;
+        this.keys = new AtomicLongArray(size);
+        this.counts = new AtomicIntegerArray(size);
+        this.guards = new AtomicIntegerArray(size);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(this, i);
+        }
+        this.mask = size - 1;
+        this.probes = Math.min(MAX_PROBES, size);
+    }
+
+    /**
+     * Bind slot to the entity and register usage of it, the slot lock should be given back
+     * with {@link LockWrapper#release()}.
+     *
+     * @return slot lock or null if there is no free slot for the entity
+     */
+    LockWrapper retain(long id) {
+        int home = spread(id) & mask;
+        int slot = find(id, home);
+        if (slot == NOT_FOUND) {
+            slot = bind(id, home);
+            if (slot == NOT_FOUND) {
+                return null;
+            }
+        }
+        retained.get()[0]++;
+        return slots[slot];
+    }
+
+    /**
+     * Same as {@link #retain(long)}, but waits for a free slot up to the given timeout,
+     * unless the thread already uses slots of the table.
+     *
+     * @return slot lock or null if no slot became free within timeout or the thread could wait for itself
+     */
+    LockWrapper retain(long id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        LockWrapper lock = retain(id);
+        if (lock != null || retained.get()[0] > 0) {
+            return lock;
+        }
+        long start = System.nanoTime();
+        long timeout = timeUnit.toNanos(timeAmount);
+        for (;;) {
+            long remaining = timeout - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return null;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, FULL_TABLE_WAIT_NANOS));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            lock = retain(id);
+            if (lock != null) {
+                return lock;
+            }
+        }
+    }
+
+    /**
+     * Number of ids which always fit the table at once: ids placed in a slot of their probe window,
+     * which fewer ids can't fill.
+     */
+    int maxLiveLocks() {
+        return probes;
+    }
+
+    private void release(int slot) {
+        retained.get()[0]--;
+        unbind(slot);
+    }
+
+    private void unbind(int slot) {
+        counts.decrementAndGet(slot);
+    }
+
+    private int find(long id, int home) {
+        for (int probe = 0; probe < probes; probe++) {
+            int slot = (home + probe) & mask;
+            if (keys.get(slot) == id && tryJoin(id, slot)) {
+                return slot;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private int bind(long id, int home) {
+        lockGuard(home);
+        try {
+            // only binding under this guard can create slot for the id, so this lookup is conclusive
+            int free = NOT_FOUND;
+            for (int probe = 0; probe < probes; probe++) {
+                int slot = (home + probe) & mask;
+                if (keys.get(slot) == id && tryJoin(id, slot)) {
+                    return slot;
+                }
+                if (free == NOT_FOUND && counts.get(slot) == FREE) {
+                    free = slot;
+                }
+            }
+            for (int slot = free; slot != NOT_FOUND; slot = nextFree(slot, home)) {
+                if (counts.compareAndSet(slot, FREE, CLAIMED)) {
+                    keys.set(slot, id);
+                    counts.set(slot, 1);
+                    return slot;
+                }
+            }
+            return NOT_FOUND;
+        } finally {
+            guards.set(home, 0);
+        }
+    }
+
+    private int nextFree(int slot, int home) {
+        for (int probe = ((slot - home) & mask) + 1; probe < probes; probe++) {
+            int next = (home + probe) & mask;
+            if (counts.get(next) == FREE) {
+                return next;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private boolean tryJoin(long id, int slot) {
+        for (;;) {
+            int count = counts.get(slot);
+            if (count <= FREE) {
+                return false;
+            }
+            if (counts.compareAndSet(slot, count, count + 1)) {
+                break;
+            }
+        }
+        if (keys.get(slot) == id) {
+            return true;
+        }
+        unbind(slot);
+        return false;
+    }
+
+    private void lockGuard(int home) {
+        int spins = 0;
+        while (!guards.compareAndSet(home, 0, 1)) {
+            Threads.spinWait(++spins);
+        }
+    }
+
+    private static int spread(long id) {
+        return Hashing.spread(Long.hashCode(id));
+    }
+
+    private static final class Slot extends LockWrapper {
+        private final LongLockTable table;
+        private final int index;
+
+        Slot(LongLockTable table, int index) {
+            this.table = table;
+            this.index = index;
+        }
+
+        @Override
+        protected Object id() {
+            return table.keys.get(index);
+        }
+
+        @Override
+        public void release() {
+            table.release(index);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.example.AsyncEntityLocker;
+import com.example.Deadline;
+import com.example.ExecutionException;
+import com.example.LockTimeoutException;
+
+/**
+ * Asynchronous locker: no thread ever waits for an entity. Protected code is put to a queue of the entity
+ * and submitted to its executor when the previous task on that entity completes, so the entity is
+ * "locked" between submission of a task and its completion, regardless of the thread running it.
+ * <p>
+ * Queues are removed once empty, so memory is proportional to the number of busy entities.
+ * Timeouts are served by a shared {@link TimerWheel}, a timed out task fails its future and is
+ * dropped from the queue when its turn comes. Futures are completed after the entity is handed to the
+ * next task, so dependent stages never run while holding the entity.
+ * <p>
+ * Handing the entity over doesn't run the next task from within the previous one: a thread handing over
+ * while it is already dispatching handed over tasks queues them, and the outermost hand-over runs them in turn.
+ * So a same-thread executor runs a long queue of tasks without growing the stack, and completes the future
+ * of each task before the next one runs.
+ * <p>
+ * A {@link Deadline} entered by the submitting thread bounds the timeout and is entered again while
+ * protected code runs, so locks taken by protected code share the budget of the submitter.
+ */
+public final class QueueingEntityLocker<T> implements AsyncEntityLocker<T> {
+    /**
+     * Tasks handed over by the thread while it dispatches handed over tasks already.
+     */
+    private static final ThreadLocal<HandOvers> HAND_OVERS = ThreadLocal.withInitial(HandOvers::new);
+
+    private final ConcurrentMap<T, EntityQueue<T>> queues = new ConcurrentHashMap<>();
+    private final TimerWheel timer;
+    private final long defaultTimeAmount;
+    private final TimeUnit timeUnit;
+
+    public QueueingEntityLocker() {
+        this(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    public QueueingEntityLocker(long defaultTimeAmount, TimeUnit timeUnit) {
+        this(defaultTimeAmount, timeUnit, TimerWheel.shared());
+    }
+
+    QueueingEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, TimerWheel timer) {
+        checkNotNull(timeUnit, "timeUnit");
+        if (defaultTimeAmount < 0) {
+            throw new IllegalArgumentException("time amount should be >= 0");
+        }
+        this.defaultTimeAmount = defaultTimeAmount;
+        this.timeUnit = timeUnit;
+        this.timer = timer;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if executor is null
+     */
+    @Override
+    public <R> CompletableFuture<R> executeWithLockAsync(T id, Callable<R> protectedCode, Executor executor) {
+        return executeWithLockAsync(id, protectedCode, executor, defaultTimeAmount, timeUnit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if id is null
+     * @throws IllegalArgumentException if protectedCode is null
+     * @throws IllegalArgumentException if executor is null
+     * @throws IllegalArgumentException if timeUnit is null
+     * @throws IllegalArgumentException if timeAmount is negative
+     */
+    @Override
+    public <R> CompletableFuture<R> executeWithLockAsync(T id, Callable<R> protectedCode, Executor executor,
+                                                         long timeAmount, TimeUnit timeUnit) {
+        checkNotNull(id, "id");
+        checkNotNull(protectedCode, "protectedCode");
+        checkNotNull(executor, "executor");
+        checkNotNull(timeUnit, "timeUnit");
+        if (timeAmount < 0) {
+            throw new IllegalArgumentException("time amount should be >= 0");
+        }
+        Deadline deadline = Deadline.current();
+        long timeoutNanos = timeUnit.toNanos(timeAmount);
+        if (deadline != null) {
+            long remaining = deadline.remainingNanos();
+            timeoutNanos = remaining > 0 ? Math.min(timeoutNanos, remaining) : -1;
+        }
+        Task<T, R> task = new Task<>(this, id, protectedCode, executor, deadline);
+        if (timeoutNanos < 0) {
+            // budget of the deadline is spent, don't queue up at all
+            task.expire();
+        } else if (enqueue(task)) {
+            dispatch(task);
+        } else if (timeoutNanos == 0) {
+            task.expire();
+        } else {
+            if (timeoutNanos != Long.MAX_VALUE) {
+                TimerWheel.Timeout timeout = timer.schedule(task::expire, timeoutNanos, TimeUnit.NANOSECONDS);
+                task.timeout = timeout;
+                if (task.state != Task.WAITING) {
+                    // dispatched before the timeout was published, so dispatch couldn't cancel it
+                    timeout.cancel();
+                }
+            }
+        }
+        return task.future;
+    }
+
+    /**
+     * @return number of entities with running or waiting tasks
+     */
+    int busyEntities() {
+        return queues.size();
+    }
+
+    /**
+     * @return true if entity was free and task should run right away
+     */
+    private boolean enqueue(Task<T, ?> task) {
+        for (;;) {
+            EntityQueue<T> queue = queues.computeIfAbsent(task.id, key -> new EntityQueue<>());
+            queue.lock.lock();
+            try {
+                if (queue.removed) {
+                    continue;
+                }
+                if (!queue.busy) {
+                    queue.busy = true;
+                    task.state = Task.RUNNING;
+                    return true;
+                }
+                queue.waiting.add(task);
+                return false;
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Hands the entity over, completes the future of the finished task and then dispatches the next one.
+     */
+    private <R> void release(T id, CompletableFuture<R> future, R result, Throwable failure) {
+        Task<T, ?> next = handOver(id);
+        if (failure == null) {
+            future.complete(result);
+        } else {
+            future.completeExceptionally(failure);
+        }
+        if (next != null) {
+            dispatchHandedOver(next);
+        }
+    }
+
+    private void dispatchHandedOver(Task<T, ?> next) {
+        HandOvers handOvers = HAND_OVERS.get();
+        if (handOvers.dispatching) {
+            handOvers.pending.add(next);
+            return;
+        }
+        handOvers.dispatching = true;
+        Throwable failure = null;
+        Task<?, ?> task = next;
+        do {
+            try {
+                task.dispatch();
+            } catch (RuntimeException | Error ex) {
+                // thrown by a task run on this thread, the queued ones own their entities and must run anyway
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        } while ((task = handOvers.pending.poll()) != null);
+        handOvers.dispatching = false;
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * @return next waiting task which now owns the entity, or null if entity is free
+     */
+    private Task<T, ?> handOver(T id) {
+        EntityQueue<T> queue = queues.get(id);
+        Task<T, ?> next;
+        queue.lock.lock();
+        try {
+            while ((next = queue.waiting.poll()) != null && !next.start()) {
+                // timed out while waiting
+            }
+            if (next == null) {
+                queue.busy = false;
+                queue.removed = true;
+                queues.remove(id, queue);
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+        return next;
+    }
+
+    private void dispatch(Task<T, ?> task) {
+        while (task != null) {
+            TimerWheel.Timeout timeout = task.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            try {
+                task.executor.execute(task);
+                return;
+            } catch (RejectedExecutionException ex) {
+                Task<T, ?> next = handOver(task.id);
+                task.future.completeExceptionally(ex);
+                task = next;
+            }
+        }
+    }
+
+    private static final class HandOvers {
+        private final ArrayDeque<Task<?, ?>> pending = new ArrayDeque<>();
+        private boolean dispatching;
+    }
+
+    private static final class EntityQueue<T> {
+        /**
+         * Not a monitor, so virtual threads contending on the queue don't block their carriers.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Task<T, ?>> waiting = new ArrayDeque<>();
+        private boolean busy;
+        private boolean removed;
+    }
+
+    private static final class Task<T, R> implements Runnable {
+        private static final int WAITING = 0;
+        private static final int RUNNING = 1;
+        private static final int TIMED_OUT = 2;
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Task> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+
+        private final QueueingEntityLocker<T> locker;
+        private final T id;
+        private final Callable<R> protectedCode;
+        private final Executor executor;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private volatile int state;
+        private final Deadline deadline;
+        private volatile TimerWheel.Timeout timeout;
+
+        private Task(QueueingEntityLocker<T> locker, T id, Callable<R> protectedCode, Executor executor, Deadline deadline) {
+            this.locker = locker;
+            this.id = id;
+            this.protectedCode = protectedCode;
+            this.executor = executor;
+            this.deadline = deadline;
+        }
+
+        private void dispatch() {
+            locker.dispatch(this);
+        }
+
+        private boolean start() {
+            return STATE.compareAndSet(this, WAITING, RUNNING);
+        }
+
+        /**
+         * Called on timer thread, so completion is passed to the executor of the task.
+         */
+        private void expire() {
+            if (STATE.compareAndSet(this, WAITING, TIMED_OUT)) {
+                try {
+                    executor.execute(() -> future.completeExceptionally(new LockTimeoutException()));
+                } catch (RejectedExecutionException ex) {
+                    future.completeExceptionally(new LockTimeoutException());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            R result;
+            try {
+                result = call();
+            } catch (Exception ex) {
+                locker.release(id, future, null, new ExecutionException("Exception during execution with lock", ex, false));
+                return;
+            } catch (Throwable ex) {
+                locker.release(id, future, null, ex);
+                throw ex;
+            }
+            locker.release(id, future, result, null);
+        }
+
+        private R call() throws Exception {
+            if (deadline == null) {
+                return protectedCode.call();
+            }
+            try (Deadline.Scope ignored = deadline.enter()) {
+                return protectedCode.call();
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.example.LockWrapper;
+
+/**
+ * Table of entity locks which keeps only locks that are in use.
+ * Usages are counted with CAS on {@link LockWrapper} usage count, the last user retires wrapper
+ * and removes it from the table, so no auxiliary locking is needed to keep count and table consistent.
+ * A retired wrapper is never reused: whoever finds it in the table removes it and retries with a new one.
+ * <p>
+ * Table can be bounded with a maximum number of live locks, then a new lock is created only
+ * when a permit is available, and the permit is returned when the lock is retired.
+ * A thread already using locks of a full table doesn't wait for a permit: the permits it waits for could be
+ * the ones it keeps itself, or ones kept by threads waiting for its permits.
+ */
+final class RefCountedLockTable<T> {
+    private final ConcurrentMap<T, LockWrapper> locks = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final int maxLiveLocks;
+    /**
+     * Number of locks retained by the thread, counted by bounded tables only.
+     */
+    private final ThreadLocal<int[]> retained;
+
+    RefCountedLockTable() {
+        this.permits = null;
+        this.maxLiveLocks = Integer.MAX_VALUE;
+        this.retained = null;
+    }
+
+    RefCountedLockTable(int maxLiveLocks) {
+        if (maxLiveLocks < 1) {
+            throw new IllegalArgumentException("max number of live locks should be greater than 0");
+        }
+        this.permits = new Semaphore(maxLiveLocks);
+        this.maxLiveLocks = maxLiveLocks;
+        this.retained = ThreadLocal.withInitial(() -> new int[1]);
+    }
+
+    /**
+     * Get lock of entity and register usage of it, the lock should be given back with {@link LockWrapper#release()}.
+     *
+     * @return entity lock or null if table is bounded and has no free permit for a new lock
+     */
+    LockWrapper retain(T id) {
+        return retain(id, false);
+    }
+
+    /**
+     * Same as {@link #retain(Object)}, but when table is bounded and a new lock is needed,
+     * waits for a free permit up to the given timeout, unless the thread already uses locks of the table.
+     *
+     * @return entity lock or null if no permit became available in time or the thread could wait for itself
+     */
+    LockWrapper retain(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        LockWrapper lock = retain(id, false);
+        if (lock != null || permits == null || retained.get()[0] > 0) {
+            return lock;
+        }
+        if (permits.tryAcquire(timeAmount, timeUnit)) {
+            return retain(id, true);
+        }
+        // someone could have created the lock meanwhile
+        return retain(id, false);
+    }
+
+    private LockWrapper retain(T id, boolean permitAcquired) {
+        boolean holdsPermit = permitAcquired;
+        LockWrapper lock = locks.get(id);
+        for (;;) {
+            if (lock == null) {
+                if (permits != null && !holdsPermit) {
+                    if (!permits.tryAcquire()) {
+                        return null;
+                    }
+                    holdsPermit = true;
+                }
+                Entry<T> created = new Entry<>(this, id);
+                // counted before publishing, so nobody can retire it in between
+                created.incrementUsageCount();
+                lock = locks.putIfAbsent(id, created);
+                if (lock == null) {
+                    if (permits != null) {
+                        retained.get()[0]++;
+                    }
+                    return created;
+                }
+            }
+            if (lock.tryIncrementUsageCount()) {
+                if (permits != null) {
+                    if (holdsPermit) {
+                        permits.release();
+                    }
+                    retained.get()[0]++;
+                }
+                return lock;
+            }
+            locks.remove(id, lock);
+            lock = locks.get(id);
+        }
+    }
+
+    private void release(T id, LockWrapper lock) {
+        if (permits != null) {
+            retained.get()[0]--;
+        }
+        if (lock.decrementUsageCountAndRetire()) {
+            locks.remove(id, lock);
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    int maxLiveLocks() {
+        return maxLiveLocks;
+    }
+
+    int size() {
+        return locks.size();
+    }
+
+    private static final class Entry<T> extends LockWrapper {
+        private final RefCountedLockTable<T> table;
+        private final T id;
+
+        Entry(RefCountedLockTable<T> table, T id) {
+            super(id);
+            this.table = table;
+            this.id = id;
+        }
+
+        @Override
+        public void release() {
+            table.release(id, this);
+        }
+    }
+}
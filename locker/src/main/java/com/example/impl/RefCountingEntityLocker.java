@@ -0,0 +1,34 @@
+package com.example.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.example.AcquisitionPolicy;
+import com.example.LockWrapper;
+
+/**
+ * Locker that keeps only locks of entities in use, like {@link StripingEntityLocker},
+ * but tracks usages with CAS on lock reference count instead of guarding lock table with stripe locks.
+ * Unrelated entities never contend with each other and uncontended acquire and release
+ * cost a pair of CAS operations on the lock itself.
+ */
+public final class RefCountingEntityLocker<T> extends AbstractEntityLocker<T> {
+
+    private final RefCountedLockTable<T> locks = new RefCountedLockTable<>();
+
+    public RefCountingEntityLocker() {
+        this(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    public RefCountingEntityLocker(long defaultTimeAmount, TimeUnit timeUnit) {
+        this(defaultTimeAmount, timeUnit, AcquisitionPolicy.PARK);
+    }
+
+    public RefCountingEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, AcquisitionPolicy acquisitionPolicy) {
+        super(defaultTimeAmount, timeUnit, acquisitionPolicy);
+    }
+
+    @Override
+    protected LockWrapper retain(T id) {
+        return locks.retain(id);
+    }
+}
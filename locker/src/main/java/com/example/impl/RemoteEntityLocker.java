@@ -0,0 +1,567 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+import static com.example.impl.AbstractEntityLocker.boundedTimeout;
+import static com.example.impl.AbstractEntityLocker.checkTimeout;
+import static com.example.impl.AbstractEntityLocker.executionFailure;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.example.Deadline;
+import com.example.EntityLocker;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockTimeoutException;
+
+/**
+ * Locker of entities shared by processes of several hosts through a {@link LockServer}.
+ * <p>
+ * All calls of the locker share one connection: callers put their requests to a queue and an I/O thread writes
+ * everything queued so far with one write, so concurrent requests are pipelined and batched. Unlocking is not
+ * answered by the server, callers don't wait for it. The I/O thread renews the lease of the connection while it is
+ * idle; if the connection breaks, the server releases its locks and calls of the locker fail.
+ * <p>
+ * Entities are identified on the server by keys given by a function of the id, {@link String#valueOf(Object)}
+ * by default. Locks are reentrant: a thread holding an entity locks it again without a round trip,
+ * shared locking of an entity held exclusively included. Handles should be closed by the thread which acquired them.
+ * Optimistic reads take shared locks, combined execution takes exclusive ones.
+ */
+public final class RemoteEntityLocker<T> implements EntityLocker<T>, AutoCloseable {
+    /**
+     * Time to wait for the answer of a server beyond the timeout of the request itself.
+     */
+    private static final long ANSWER_GRACE_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final LockHandle NOOP = () -> {};
+
+    private final Function<? super T, String> keyOf;
+    private final long defaultTimeAmount;
+    private final TimeUnit timeUnit;
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final long pingIntervalNanos;
+    private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+    private final Map<Long, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    /**
+     * Grants held by the thread by key.
+     */
+    private final ThreadLocal<Map<String, Grant>> held = ThreadLocal.withInitial(HashMap::new);
+    private final Thread io;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    public RemoteEntityLocker(InetSocketAddress server) throws IOException {
+        this(server, String::valueOf, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Connect to the server.
+     *
+     * @param keyOf function giving key of an entity on the server
+     */
+    public RemoteEntityLocker(InetSocketAddress server, Function<? super T, String> keyOf, long defaultTimeAmount, TimeUnit timeUnit) throws IOException {
+        checkNotNull(server, "server");
+        checkNotNull(keyOf, "keyOf");
+        checkTimeout(defaultTimeAmount, timeUnit);
+        this.keyOf = keyOf;
+        this.defaultTimeAmount = defaultTimeAmount;
+        this.timeUnit = timeUnit;
+        this.channel = SocketChannel.open(server);
+        try {
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer hello = ByteBuffer.allocate(LockProtocol.HEADER_SIZE);
+            while (hello.hasRemaining()) {
+                if (channel.read(hello) < 0) {
+                    throw new IOException("lock server closed connection");
+                }
+            }
+            hello.flip();
+            hello.getInt();
+            if (hello.get() != LockProtocol.HELLO) {
+                throw new IOException("not a lock server");
+            }
+            this.pingIntervalNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(hello.getLong()) / 3, 1);
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        this.io = new Thread(this::serve, "entity-locker-client");
+        io.setDaemon(true);
+        io.start();
+    }
+
+    /**
+     * Close the connection, locks held are released by the server.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            io.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        LockHandle lock = lock(id, false, timeAmount, timeUnit);
+        try {
+            protectedCode.run();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return call(id, false, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(deadline, "deadline");
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return executeWithLock(id, protectedCode);
+        }
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, arg, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        LockHandle lock = lock(id, false, timeAmount, timeUnit);
+        try {
+            return protectedCode.apply(arg);
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, arg1, arg2, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        LockHandle lock = lock(id, false, timeAmount, timeUnit);
+        try {
+            protectedCode.accept(arg1, arg2);
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    @Override
+    public LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        return acquire(id, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        LockHandle lock = tryAcquire(id, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(protectedCode, "protectedCode");
+        LockHandle lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        if (lock == null) {
+            return false;
+        }
+        try {
+            protectedCode.run();
+            return true;
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    @Override
+    public <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(protectedCode, "protectedCode");
+        LockHandle lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        if (lock == null) {
+            return valueIfNotLocked;
+        }
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException if connection to the server is broken
+     */
+    @Override
+    public LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        return tryAcquire(id, false, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return call(id, true, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Same as {@link #executeWithReadLock(Object, Callable)}, the server keeps no versions to validate reads with.
+     */
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        return acquireRead(id, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        LockHandle lock = tryAcquire(id, true, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLocks(ids, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    /**
+     * All entities are locked by a single request, the server grants it once all of them are free.
+     */
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(ids, "ids");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        Set<String> keys = new LinkedHashSet<>();
+        for (T id : ids) {
+            checkNotNull(id, "id");
+            keys.add(keyOf.apply(id));
+        }
+        LockHandle lock;
+        try {
+            lock = tryLock(keys, false, boundedTimeout(timeAmount, timeUnit));
+        } catch (InterruptedException | IOException ex) {
+            throw executionFailure(ex);
+        }
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Callable)}, code of waiters on other hosts can't be combined.
+     */
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    private <R> R call(T id, boolean shared, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        LockHandle lock = lock(id, shared, timeAmount, timeUnit);
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            lock.close();
+        }
+    }
+
+    private LockHandle lock(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        LockHandle lock = tryLockOrFail(id, shared, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    private LockHandle tryLockOrFail(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        try {
+            return tryLock(Set.of(keyOf.apply(id)), shared, boundedTimeout(timeAmount, timeUnit));
+        } catch (InterruptedException | IOException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    private LockHandle tryAcquire(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        try {
+            return tryLock(Set.of(keyOf.apply(id)), shared, boundedTimeout(timeAmount, timeUnit));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Lock keys not held by the thread yet with one request.
+     *
+     * @param timeoutNanos timeout, negative to fail without trying
+     * @return handle to unlock keys with, null if they couldn't be locked in time
+     */
+    private LockHandle tryLock(Set<String> keys, boolean shared, long timeoutNanos) throws InterruptedException, IOException {
+        if (timeoutNanos < 0) {
+            return null;
+        }
+        Map<String, Grant> grants = held.get();
+        List<String> missing = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Grant grant = grants.get(key);
+            // locks held by the thread are left to the outer handle
+            if (grant == null || grant.shared && !shared) {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return NOOP;
+        }
+        long id = request(missing, shared, timeoutNanos);
+        if (id == 0) {
+            return null;
+        }
+        Grant grant = new Grant(id, shared, missing);
+        for (String key : missing) {
+            grants.put(key, grant);
+        }
+        return () -> release(grant);
+    }
+
+    /**
+     * Send acquire request and wait for the answer.
+     *
+     * @return id of the granted request, zero if it was not granted in time
+     */
+    private long request(List<String> keys, boolean shared, long timeoutNanos) throws InterruptedException, IOException {
+        byte[][] encoded = new byte[keys.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = LockProtocol.encode(keys.get(i));
+        }
+        boolean limited = timeoutNanos < Long.MAX_VALUE >> 1;
+        long id = ids.incrementAndGet();
+        CompletableFuture<Boolean> answer = new CompletableFuture<>();
+        pending.put(id, answer);
+        if (closed) {
+            pending.remove(id);
+            IOException cause = failure;
+            throw cause != null ? new IOException(cause.getMessage(), cause) : new IOException("lock server connection is closed");
+        }
+        send(LockProtocol.acquire(id, shared, limited ? timeoutNanos : LockProtocol.NO_TIMEOUT, encoded));
+        boolean granted = false;
+        try {
+            granted = limited ? answer.get(timeoutNanos + ANSWER_GRACE_NANOS, TimeUnit.NANOSECONDS) : answer.get();
+            return granted ? id : 0;
+        } catch (java.util.concurrent.TimeoutException ex) {
+            return 0;
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw (IOException) ex.getCause();
+        } finally {
+            if (!granted) {
+                pending.remove(id);
+                // cancel the wait, or unlock if it was granted meanwhile
+                send(LockProtocol.message(LockProtocol.RELEASE, id));
+            }
+        }
+    }
+
+    private void release(Grant grant) {
+        Map<String, Grant> grants = held.get();
+        for (String key : grant.keys) {
+            grants.remove(key, grant);
+        }
+        send(LockProtocol.message(LockProtocol.RELEASE, grant.id));
+    }
+
+    private void send(ByteBuffer frame) {
+        outbox.add(frame);
+        if (sleeping) {
+            selector.wakeup();
+        }
+    }
+
+    private void serve() {
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+        long lastWrite = System.nanoTime();
+        try {
+            while (!closed) {
+                sleeping = true;
+                if (outbox.isEmpty()) {
+                    selector.select(Math.max(TimeUnit.NANOSECONDS.toMillis(pingIntervalNanos), 1));
+                } else {
+                    selector.selectNow();
+                }
+                sleeping = false;
+                selector.selectedKeys().clear();
+                if (channel.read(input) < 0) {
+                    throw new IOException("lock server closed connection");
+                }
+                input.flip();
+                while (input.remaining() >= LockProtocol.HEADER_SIZE) {
+                    input.getInt();
+                    byte status = input.get();
+                    CompletableFuture<Boolean> answer = pending.remove(input.getLong());
+                    if (answer != null) {
+                        answer.complete(status == LockProtocol.GRANTED);
+                    }
+                }
+                input.compact();
+                ByteBuffer frame;
+                while (output.hasRemaining() && (frame = outbox.peek()) != null) {
+                    if (frame.remaining() > output.remaining()) {
+                        if (output.position() != 0) {
+                            break;
+                        }
+                        // frame larger than the buffer is written on its own
+                        output = ByteBuffer.allocate(frame.remaining());
+                    }
+                    output.put(outbox.poll());
+                }
+                long now = System.nanoTime();
+                if (output.position() == 0 && now - lastWrite >= pingIntervalNanos) {
+                    LockProtocol.put(output, LockProtocol.PING, 0);
+                }
+                if (output.position() != 0) {
+                    output.flip();
+                    channel.write(output);
+                    output.compact();
+                    lastWrite = now;
+                }
+                channel.keyFor(selector).interestOps(output.position() != 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        } catch (IOException ex) {
+            failure = ex;
+        } finally {
+            IOException cause = failure != null ? failure : new IOException("lock server connection is closed");
+            failure = cause;
+            closed = true;
+            for (CompletableFuture<Boolean> answer : pending.values()) {
+                answer.completeExceptionally(cause);
+            }
+            try {
+                channel.close();
+                selector.close();
+            } catch (IOException ignored) {
+                // connection is gone anyway
+            }
+        }
+    }
+
+    /**
+     * Keys locked by one request of the thread.
+     */
+    private static final class Grant {
+        final long id;
+        final boolean shared;
+        final List<String> keys;
+
+        Grant(long id, boolean shared, List<String> keys) {
+            this.id = id;
+            this.shared = shared;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,698 @@
+package com.example.impl;
+
+import static com.example.LockerUtil.checkNotNull;
+import static com.example.impl.AbstractEntityLocker.boundedTimeout;
+import static com.example.impl.AbstractEntityLocker.checkTimeout;
+import static com.example.impl.AbstractEntityLocker.executionFailure;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.example.Deadline;
+import com.example.EntityLocker;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockTimeoutException;
+
+/**
+ * Locker coordinating processes of the same host: entity locks are slots of a table in a memory-mapped file,
+ * updated by CAS through a {@link VarHandle}. Every process (and every thread of it) mapping the same file
+ * excludes the others, an uncontended lock costs a few atomic operations on one cache line of shared memory.
+ * <p>
+ * Entities are spread over slots by hash code, so ids should have hash codes equal in all processes (strings,
+ * numbers and values built of them), and entities sharing a slot exclude each other. Exclusive locks are reentrant
+ * for the owning thread. A slot counts shared locks per process in a few reader lanes, so readers of as many
+ * processes can hold a slot at once. Optimistic reads take shared locks, combined execution takes exclusive ones.
+ * Locking several entities takes their slots in slot order, so it doesn't deadlock across processes either.
+ * <p>
+ * Sharing a slot can deadlock nested locking though: threads locking two different pairs of entities one inside
+ * another may wait for each other when their entities share slots in opposite orders, and a thread holding a shared
+ * lock waits for itself if it locks another entity of the slot exclusively. Lock entities needed together with one
+ * {@code executeWithLocks} call, and size the table well above the number of entities locked at once, so that
+ * collisions are rare.
+ * <p>
+ * The owner word and reader lanes hold the process id, the owner word the thread id of the owner as well.
+ * A waiter checks from time to time whether the processes holding the slot are still alive, and frees the slot
+ * from dead ones. A slot of a crashed process whose id has been reused meanwhile is freed only once the new process
+ * exits. Waiting spins briefly and then parks with growing pauses, as holders in other processes can't wake
+ * waiters up.
+ */
+public final class SharedMemoryEntityLocker<T> implements EntityLocker<T> {
+    public static final int DEFAULT_SLOTS = 4096;
+
+    /**
+     * "ENTLOCK2", versions differ in how entities are spread over slots.
+     */
+    private static final long MAGIC = 0x454e544c4f434b32L;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SLOTS_OFFSET = 8;
+    /**
+     * Slot takes a cache line, so processes locking neighbour slots don't slow each other down.
+     */
+    private static final int SLOT_SIZE = 64;
+    private static final int OWNER = 0;
+    private static final int HOLDS = 8;
+    /**
+     * Offset of reader lanes, the rest of the slot: a lane counts readers of one process next to its id.
+     */
+    private static final int LANES = 16;
+    private static final long READERS_MASK = 0xFFFFFFFFL;
+    private static final int NOT_LOCKED = 0;
+    private static final int MAX_SLOTS = 1 << 24;
+    private static final int SPINS = 64;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * How often a waiter checks that the owner process is alive.
+     */
+    private static final long RECOVERY_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long PID = ProcessHandle.current().pid();
+
+    private final MappedByteBuffer table;
+    private final int mask;
+    private final long defaultTimeAmount;
+    private final TimeUnit timeUnit;
+    private final LongAdder recovered = new LongAdder();
+
+    public SharedMemoryEntityLocker(Path file) throws IOException {
+        this(file, DEFAULT_SLOTS, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Map the lock table file, creating it if it doesn't exist yet. All processes should use the same slot count.
+     *
+     * @param slots number of lock slots, rounded up to a power of two
+     * @throws IllegalArgumentException if the file is not a lock table of the same slot count
+     */
+    public SharedMemoryEntityLocker(Path file, int slots, long defaultTimeAmount, TimeUnit timeUnit) throws IOException {
+        checkNotNull(file, "file");
+        checkTimeout(defaultTimeAmount, timeUnit);
+        if (slots < 1 || slots > MAX_SLOTS) {
+            throw new IllegalArgumentException("number of slots should be between 1 and " + MAX_SLOTS);
+        }
+        int size = slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+        this.mask = size - 1;
+        this.defaultTimeAmount = defaultTimeAmount;
+        this.timeUnit = timeUnit;
+        this.table = map(file, size);
+    }
+
+    /**
+     * @return count of slots taken over from dead owner processes by this locker
+     */
+    public long getRecoveredCount() {
+        return recovered.sum();
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        int lock = lock(id, false, timeAmount, timeUnit);
+        try {
+            protectedCode.run();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return call(id, false, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithLock(T id, Deadline deadline, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        checkNotNull(deadline, "deadline");
+        try (Deadline.Scope ignored = deadline.enter()) {
+            return executeWithLock(id, protectedCode);
+        }
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, arg, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <A, R> R executeWithLock(T id, A arg, Function<A, R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        int lock = lock(id, false, timeAmount, timeUnit);
+        try {
+            return protectedCode.apply(arg);
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode) throws ExecutionException, TimeoutException {
+        executeWithLock(id, arg1, arg2, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <A, B> void executeWithLock(T id, A arg1, B arg2, BiConsumer<A, B> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        int lock = lock(id, false, timeAmount, timeUnit);
+        try {
+            protectedCode.accept(arg1, arg2);
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public LockHandle acquire(T id) throws TimeoutException, InterruptedException {
+        return acquire(id, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public LockHandle acquire(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        LockHandle lock = tryAcquire(id, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public boolean tryExecuteWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(protectedCode, "protectedCode");
+        int lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        if (lock == NOT_LOCKED) {
+            return false;
+        }
+        try {
+            protectedCode.run();
+            return true;
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public <R> R tryExecuteWithLock(T id, Callable<R> protectedCode, R valueIfNotLocked, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(protectedCode, "protectedCode");
+        int lock = tryLockOrFail(id, false, timeAmount, timeUnit);
+        if (lock == NOT_LOCKED) {
+            return valueIfNotLocked;
+        }
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public LockHandle tryAcquire(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        return tryAcquire(id, false, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithReadLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return call(id, true, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithWriteLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    /**
+     * Same as {@link #executeWithReadLock(Object, Callable)}, slots keep no version to validate reads with.
+     */
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeWithOptimisticRead(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithReadLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    @Override
+    public LockHandle acquireRead(T id) throws TimeoutException, InterruptedException {
+        return acquireRead(id, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public LockHandle acquireRead(T id, long timeAmount, TimeUnit timeUnit) throws TimeoutException, InterruptedException {
+        LockHandle lock = tryAcquire(id, true, timeAmount, timeUnit);
+        if (lock == null) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLocks(ids, protectedCode, defaultTimeAmount, timeUnit);
+    }
+
+    @Override
+    public <R> R executeWithLocks(Collection<T> ids, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(ids, "ids");
+        checkNotNull(protectedCode, "protectedCode");
+        checkTimeout(timeAmount, timeUnit);
+        int[] slots = new int[ids.size()];
+        int count = 0;
+        for (T id : ids) {
+            checkNotNull(id, "id");
+            slots[count++] = slot(id);
+        }
+        Arrays.sort(slots);
+        long timeout = boundedTimeout(timeAmount, timeUnit);
+        long start = System.nanoTime();
+        int locked = 0;
+        int previous = NOT_LOCKED;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (slots[i] == previous) {
+                    // entities sharing a slot
+                    slots[i] = NOT_LOCKED;
+                } else if (tryLock(slots[i], false, timeout < 0 ? -1 : Math.max(timeout - (System.nanoTime() - start), 0)) == NOT_LOCKED) {
+                    throw new LockTimeoutException();
+                } else {
+                    previous = slots[i];
+                }
+                locked = i + 1;
+            }
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        } finally {
+            if (locked < count) {
+                unlockAll(slots, locked);
+            }
+        }
+        // timeouts of protected code are its failures, like any other exception
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            unlockAll(slots, locked);
+        }
+    }
+
+    /**
+     * Unlock the first {@code locked} of sorted slots, slots of entities sharing a slot are skipped.
+     */
+    private void unlockAll(int[] slots, int locked) {
+        for (int i = locked - 1; i >= 0; i--) {
+            if (slots[i] != NOT_LOCKED) {
+                unlock(slots[i]);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #executeWithLock(Object, Callable)}, waiters in other processes can't be combined.
+     */
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode);
+    }
+
+    @Override
+    public <R> R executeCombined(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        return executeWithLock(id, protectedCode, timeAmount, timeUnit);
+    }
+
+    private <R> R call(T id, boolean shared, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        checkNotNull(protectedCode, "protectedCode");
+        int lock = lock(id, shared, timeAmount, timeUnit);
+        try {
+            return protectedCode.call();
+        } catch (Exception ex) {
+            throw executionFailure(ex);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    private LockHandle tryAcquire(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        int lock = tryLock(slot(id), shared, boundedTimeout(timeAmount, timeUnit));
+        if (lock == NOT_LOCKED) {
+            return null;
+        }
+        return () -> unlock(lock);
+    }
+
+    /**
+     * @return lock to {@link #unlock(int)}
+     */
+    private int lock(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+        int lock = tryLockOrFail(id, shared, timeAmount, timeUnit);
+        if (lock == NOT_LOCKED) {
+            throw new LockTimeoutException();
+        }
+        return lock;
+    }
+
+    /**
+     * @return lock to {@link #unlock(int)}, {@link #NOT_LOCKED} if it couldn't be taken in time
+     */
+    private int tryLockOrFail(T id, boolean shared, long timeAmount, TimeUnit timeUnit) throws ExecutionException {
+        checkNotNull(id, "id");
+        checkTimeout(timeAmount, timeUnit);
+        try {
+            return tryLock(slot(id), shared, boundedTimeout(timeAmount, timeUnit));
+        } catch (InterruptedException ex) {
+            throw executionFailure(ex);
+        }
+    }
+
+    /**
+     * Lock slot, shared locking of a slot held exclusively by the thread takes the exclusive lock once more.
+     *
+     * @param timeoutNanos timeout, negative to fail without trying
+     * @return offset of the slot for exclusive lock, negated offset for shared lock,
+     * {@link #NOT_LOCKED} if it couldn't be taken in time
+     */
+    private int tryLock(int slot, boolean shared, long timeoutNanos) throws InterruptedException {
+        if (timeoutNanos < 0) {
+            return NOT_LOCKED;
+        }
+        long owner = ownerTag();
+        if ((long) LONGS.getVolatile(table, slot + OWNER) == owner) {
+            LONGS.set(table, slot + HOLDS, (long) LONGS.get(table, slot + HOLDS) + 1);
+            return slot;
+        }
+        return shared ? readLock(slot, timeoutNanos) : writeLock(slot, owner, timeoutNanos);
+    }
+
+    /**
+     * Take the owner word, then wait for readers to leave. Holds stay zero until readers are gone, so readers
+     * coming meanwhile still get in; holds are set before checking readers the last time, so a reader either
+     * sees them or is seen.
+     */
+    private int writeLock(int slot, long owner, long timeoutNanos) throws InterruptedException {
+        Backoff backoff = null;
+        for (;;) {
+            long current = (long) LONGS.getVolatile(table, slot + OWNER);
+            if (current == 0 && LONGS.compareAndSet(table, slot + OWNER, 0L, owner)) {
+                break;
+            }
+            if (backoff == null) {
+                if (timeoutNanos == 0) {
+                    return NOT_LOCKED;
+                }
+                backoff = new Backoff(timeoutNanos);
+            }
+            if (backoff.recoveryDue()) {
+                recoverOwner(slot, current);
+            }
+            if (!backoff.pause()) {
+                return NOT_LOCKED;
+            }
+        }
+        LONGS.setVolatile(table, slot + HOLDS, 0L);
+        boolean locked = false;
+        try {
+            for (;;) {
+                if (readersGone(slot)) {
+                    LONGS.setVolatile(table, slot + HOLDS, 1L);
+                    if (readersGone(slot)) {
+                        locked = true;
+                        return slot;
+                    }
+                    LONGS.setVolatile(table, slot + HOLDS, 0L);
+                }
+                if (backoff == null) {
+                    if (timeoutNanos == 0) {
+                        return NOT_LOCKED;
+                    }
+                    backoff = new Backoff(timeoutNanos);
+                }
+                if (backoff.recoveryDue()) {
+                    recoverReaders(slot);
+                }
+                if (!backoff.pause()) {
+                    return NOT_LOCKED;
+                }
+            }
+        } finally {
+            if (!locked) {
+                LONGS.setVolatile(table, slot + OWNER, 0L);
+            }
+        }
+    }
+
+    /**
+     * Count the reader in the lane of its process, then check that no writer holds the slot.
+     */
+    private int readLock(int slot, long timeoutNanos) throws InterruptedException {
+        Backoff backoff = null;
+        for (;;) {
+            boolean entered = enterLane(slot);
+            if (entered) {
+                if ((long) LONGS.getVolatile(table, slot + OWNER) == 0 || (long) LONGS.getVolatile(table, slot + HOLDS) == 0) {
+                    return -slot;
+                }
+                exitLane(slot);
+            }
+            if (backoff == null) {
+                if (timeoutNanos == 0) {
+                    return NOT_LOCKED;
+                }
+                backoff = new Backoff(timeoutNanos);
+            }
+            if (backoff.recoveryDue()) {
+                if (entered) {
+                    recoverOwner(slot, (long) LONGS.getVolatile(table, slot + OWNER));
+                } else {
+                    recoverReaders(slot);
+                }
+            }
+            if (!backoff.pause()) {
+                return NOT_LOCKED;
+            }
+        }
+    }
+
+    private void unlock(int lock) {
+        if (lock < 0) {
+            exitLane(-lock);
+            return;
+        }
+        long holds = (long) LONGS.get(table, lock + HOLDS) - 1;
+        if (holds != 0) {
+            LONGS.set(table, lock + HOLDS, holds);
+            return;
+        }
+        LONGS.setVolatile(table, lock + HOLDS, 0L);
+        LONGS.setVolatile(table, lock + OWNER, 0L);
+    }
+
+    /**
+     * @return false if all lanes are taken by other processes
+     */
+    private boolean enterLane(int slot) {
+        for (;;) {
+            int free = NOT_LOCKED;
+            boolean retry = false;
+            for (int lane = slot + LANES; lane < slot + SLOT_SIZE; lane += Long.BYTES) {
+                long value = (long) LONGS.getVolatile(table, lane);
+                if (value >>> 32 == PID) {
+                    if (LONGS.compareAndSet(table, lane, value, value + 1)) {
+                        return true;
+                    }
+                    retry = true;
+                    break;
+                }
+                if (value == 0 && free == NOT_LOCKED) {
+                    free = lane;
+                }
+            }
+            if (!retry) {
+                if (free == NOT_LOCKED) {
+                    return false;
+                }
+                if (LONGS.compareAndSet(table, free, 0L, PID << 32 | 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Uncount a reader of this process, from any lane of the process as lanes only count readers.
+     */
+    private void exitLane(int slot) {
+        for (;;) {
+            for (int lane = slot + LANES; lane < slot + SLOT_SIZE; lane += Long.BYTES) {
+                long value = (long) LONGS.getVolatile(table, lane);
+                if (value >>> 32 == PID && (value & READERS_MASK) != 0) {
+                    // lane of a single reader is freed for other processes
+                    long next = (value & READERS_MASK) == 1 ? 0 : value - 1;
+                    if (LONGS.compareAndSet(table, lane, value, next)) {
+                        return;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean readersGone(int slot) {
+        for (int lane = slot + LANES; lane < slot + SLOT_SIZE; lane += Long.BYTES) {
+            if ((long) LONGS.getVolatile(table, lane) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void recoverOwner(int slot, long owner) {
+        if (owner != 0 && !isAlive(owner) && LONGS.compareAndSet(table, slot + OWNER, owner, 0L)) {
+            recovered.increment();
+        }
+    }
+
+    private void recoverReaders(int slot) {
+        for (int lane = slot + LANES; lane < slot + SLOT_SIZE; lane += Long.BYTES) {
+            long value = (long) LONGS.getVolatile(table, lane);
+            if (value != 0 && !isAlive(value) && LONGS.compareAndSet(table, lane, value, 0L)) {
+                recovered.increment();
+            }
+        }
+    }
+
+    private int slot(T id) {
+        return HEADER_SIZE + (Hashing.spread(id.hashCode()) & mask) * SLOT_SIZE;
+    }
+
+    /**
+     * @param owner owner or reader lane with process id in high bits
+     * @return whether the process is alive, threads of this process can't crash alone
+     */
+    private static boolean isAlive(long owner) {
+        long pid = owner >>> 32;
+        return pid == PID || ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    private static long ownerTag() {
+        return PID << 32 | Thread.currentThread().getId() & 0xFFFFFFFFL;
+    }
+
+    private static MappedByteBuffer map(Path file, int slots) throws IOException {
+        long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            // processes creating the table at once are serialized by the file lock
+            boolean created = channel.size() == 0;
+            if (!created && channel.size() != size) {
+                throw new IllegalArgumentException("lock table file has other size than " + slots + " slots need");
+            }
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            table.order(ByteOrder.nativeOrder());
+            if (created) {
+                table.putLong(SLOTS_OFFSET, slots);
+                table.putLong(MAGIC_OFFSET, MAGIC);
+                table.force();
+            } else if (table.getLong(MAGIC_OFFSET) != MAGIC || table.getLong(SLOTS_OFFSET) != slots) {
+                throw new IllegalArgumentException("file is not a lock table of " + slots + " slots");
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Waiting of one lock call: spins first, then parks for growing pauses up to the timeout.
+     */
+    private static final class Backoff {
+        private final long start = System.nanoTime();
+        private final long timeoutNanos;
+        private long nextRecovery = start + RECOVERY_CHECK_NANOS;
+        private long park = MIN_PARK_NANOS;
+        private int spins;
+
+        Backoff(long timeoutNanos) {
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        /**
+         * @return whether it is time to check that holders of the slot are alive
+         */
+        boolean recoveryDue() {
+            long now = System.nanoTime();
+            if (now - nextRecovery < 0) {
+                return false;
+            }
+            nextRecovery = now + RECOVERY_CHECK_NANOS;
+            return true;
+        }
+
+        /**
+         * @return false if the timeout has expired
+         */
+        boolean pause() throws InterruptedException {
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (spins < SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, Math.min(park, remaining));
+                park = Math.min(park << 1, MAX_PARK_NANOS);
+            }
+            return true;
+        }
+    }
+}
@@ -1,114 +1,87 @@
 package com.example.impl;
 
 import java.util.Map;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.ReentrantLock;
 
-import com.example.LockerUtil;
-import com.example.EntityLocker;
-import com.example.ExecutionException;
+import com.example.AcquisitionPolicy;
+import com.example.LockWrapper;
 
-public final class SimpleEntityLocker<T> implements EntityLocker<T> {
-    private final Map<T, ReentrantLock> locks = new ConcurrentHashMap<>();
-
-    private final long defaultTimeAmount;
-    private final TimeUnit timeUnit;
+/**
+ * Locker which keeps a lock for every entity it has ever seen, so locking costs a single map lookup.
+ * <p>
+ * For unbounded key spaces use reclaiming mode ({@link #SimpleEntityLocker(long, TimeUnit, int)}):
+ * locks are reference counted and removed once no thread uses them, so memory is proportional to
+ * the number of concurrently locked entities, and number of live locks is capped.
+ */
+public final class SimpleEntityLocker<T> extends AbstractEntityLocker<T> {
+    private final Map<T, LockWrapper> locks;
+    private final RefCountedLockTable<T> reclaimedLocks;
 
     public SimpleEntityLocker() {
         this(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
     }
 
     public SimpleEntityLocker(long defaultTimeAmount, TimeUnit timeUnit) {
-        LockerUtil.checkNotNull(timeUnit, "timeUnit");
-        if (defaultTimeAmount < 0) {
-            throw new IllegalArgumentException("time amount should be greater than 0");
-        }
-        this.defaultTimeAmount = defaultTimeAmount;
-        this.timeUnit = timeUnit;
+        this(defaultTimeAmount, timeUnit, AcquisitionPolicy.PARK);
+    }
+
+    public SimpleEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, AcquisitionPolicy acquisitionPolicy) {
+        super(defaultTimeAmount, timeUnit, acquisitionPolicy);
+        this.locks = new ConcurrentHashMap<>();
+        this.reclaimedLocks = null;
     }
 
     /**
-     * {@inheritDoc}
+     * Create locker in reclaiming mode. When {@code maxLiveLocks} entities are locked, locking of another one
+     * waits for a lock to be released, within the same timeout as the lock itself.
+     * <p>
+     * A thread which already holds locks of this locker, e.g. nested or in {@code executeWithLocks}, fails
+     * with a timeout at once instead: the locks it would wait for may be its own, or held by threads waiting
+     * for them, and with the default infinite timeout such a wait would never end. Locks released by another
+     * thread than the one which locked them still count as held by the locking thread. Locking of more than
+     * {@code maxLiveLocks} entities at once is rejected with {@link com.example.LockRejectedException}.
      *
-     * @throws IllegalArgumentException if id is null
-     * @throws IllegalArgumentException if protectedCode is null
+     * @param defaultTimeAmount default time amount for timeout
+     * @param timeUnit default time unit for timeout
+     * @param maxLiveLocks maximum number of locks kept at the same time
      */
-    @Override
-    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
-        LockerUtil.checkNotNull(id, "id");
-        LockerUtil.checkNotNull(protectedCode, "protectedCode");
-        execute(id, LockerUtil.convert2callable(protectedCode), defaultTimeAmount, timeUnit);
+    public SimpleEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int maxLiveLocks) {
+        this(defaultTimeAmount, timeUnit, maxLiveLocks, AcquisitionPolicy.PARK);
     }
 
     /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalArgumentException if id is null
-     * @throws IllegalArgumentException if protectedCode is null
-     * @throws IllegalArgumentException if time unit is null
-     * @throws IllegalArgumentException if time amount is less than zero
+     * Create locker in reclaiming mode with given acquisition policy, see {@link #SimpleEntityLocker(long, TimeUnit, int)}.
      */
+    public SimpleEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int maxLiveLocks, AcquisitionPolicy acquisitionPolicy) {
+        super(defaultTimeAmount, timeUnit, acquisitionPolicy);
+        this.locks = null;
+        this.reclaimedLocks = new RefCountedLockTable<>(maxLiveLocks);
+    }
+
     @Override
-    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
-        LockerUtil.checkNotNull(id, "id");
-        LockerUtil.checkNotNull(protectedCode, "protectedCode");
-        LockerUtil.checkNotNull(timeUnit, "timeUnit");
-        if (timeAmount < 0) {
-            throw new IllegalArgumentException("time amount should be >= 0");
+    protected LockWrapper retain(T id) {
+        if (reclaimedLocks != null) {
+            return reclaimedLocks.retain(id);
         }
-        execute(id, LockerUtil.convert2callable(protectedCode), timeAmount, timeUnit);
+        LockWrapper lock = locks.get(id);
+        return lock != null ? lock : locks.computeIfAbsent(id, LockWrapper::new);
     }
 
-    /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalArgumentException if id is null
-     * @throws IllegalArgumentException if protectedCode is null
-     */
     @Override
-    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
-        LockerUtil.checkNotNull(id, "id");
-        LockerUtil.checkNotNull(protectedCode, "protectedCode");
-        return execute(id, protectedCode, defaultTimeAmount, timeUnit);
+    protected LockWrapper retain(T id, long timeAmount, TimeUnit timeUnit) throws InterruptedException {
+        if (reclaimedLocks != null) {
+            return reclaimedLocks.retain(id, timeAmount, timeUnit);
+        }
+        return retain(id);
     }
 
-    /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalArgumentException if id is null
-     * @throws IllegalArgumentException if protectedCode is null
-     * @throws IllegalArgumentException if time unit is null
-     * @throws IllegalArgumentException if time amount is less than zero
-     */
     @Override
-    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
-        LockerUtil.checkNotNull(id, "id");
-        LockerUtil.checkNotNull(protectedCode, "protectedCode");
-        LockerUtil.checkNotNull(timeUnit, "timeUnit");
-        if (timeAmount < 0) {
-            throw new IllegalArgumentException("time amount should be greater than 0");
-        }
-        return execute(id, protectedCode, timeAmount, timeUnit);
+    protected int maxLiveLocks() {
+        return reclaimedLocks != null ? reclaimedLocks.maxLiveLocks() : Integer.MAX_VALUE;
     }
 
-    private <R> R execute(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
-        ReentrantLock lock = locks.computeIfAbsent(id, key -> new ReentrantLock());
-        boolean locked = false;
-        try {
-            locked = lock.tryLock(timeAmount, timeUnit);
-            if (locked) {
-                return protectedCode.call();
-            }
-        } catch (Exception ex) {
-            throw new ExecutionException("Exception during execution with lock", ex);
-        } finally {
-            if (locked) {
-                lock.unlock();
-            }
-        }
-        throw new TimeoutException("Operation cannot be executed due to timeout");
+    int liveLocks() {
+        return reclaimedLocks != null ? reclaimedLocks.size() : locks.size();
     }
 }
@@ -1,28 +1,38 @@
 package com.example.impl;
 
-import static com.example.LockerUtil.checkNotNull;
-import static com.example.LockerUtil.convert2callable;
-
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.IntStream;
 
-import com.example.EntityLocker;
-import com.example.ExecutionException;
+import com.example.AcquisitionPolicy;
 import com.example.LockWrapper;
 
-public final class StripingEntityLocker<T> implements EntityLocker<T> {
+/**
+ * Locker that keeps only locks of entities in use, lock map updates are guarded by stripe locks.
+ * <p>
+ * Stripe count defaults to four per processor and is always a power of two, entities are spread over stripes
+ * by a mixed hash code. When stripes are often found busy, the stripe table is doubled online: the new table
+ * is published with its stripes held by the resizing thread until calls in flight on the old stripes are done,
+ * so in-flight calls are never stopped and new ones wait for them only. Growing stops at {@link #MAX_STRIPES},
+ * contention on a single hot entity can't be spread by more stripes anyway.
+ */
+public final class StripingEntityLocker<T> extends AbstractEntityLocker<T> {
+
+    private static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+    private static final int MAX_STRIPES = 1 << 16;
+    /**
+     * Busy stripes found per stripe within {@link #CONTENTION_WINDOW_NANOS} to grow the stripe table.
+     */
+    private static final int CONTENTION_THRESHOLD = 16;
+    private static final long CONTENTION_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
 
-    private static final int DEFAULT_STRIPES = 32;
     private final Map<T, LockWrapper> locks = new ConcurrentHashMap<>();
-    private final Lock[] stripes;
-    private final long defaultTimeAmount;
-    private final TimeUnit timeUnit;
+    private final AtomicBoolean resizing = new AtomicBoolean();
+    private volatile Stripes stripes;
 
     public StripingEntityLocker() {
         this(Long.MAX_VALUE, TimeUnit.MILLISECONDS, DEFAULT_STRIPES);
@@ -32,95 +42,109 @@ public final class StripingEntityLocker<T> implements EntityLocker<T> {
         this(lockTimeout, lockTimeoutUnit, DEFAULT_STRIPES);
     }
 
+    /**
+     * @param stripesNum initial number of stripes, rounded up to a power of two
+     */
     public StripingEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int stripesNum) {
-        checkNotNull(timeUnit, "timeUnit");
-        if (defaultTimeAmount < 0) {
-            throw new IllegalArgumentException("time amount should be >= 0");
-        }
+        this(defaultTimeAmount, timeUnit, stripesNum, AcquisitionPolicy.PARK);
+    }
+
+    public StripingEntityLocker(long defaultTimeAmount, TimeUnit timeUnit, int stripesNum, AcquisitionPolicy acquisitionPolicy) {
+        super(defaultTimeAmount, timeUnit, acquisitionPolicy);
         if (stripesNum < 1) {
             throw new IllegalArgumentException("number of stripesNum should be greater than 0");
         }
-        this.defaultTimeAmount = defaultTimeAmount;
-        this.timeUnit = timeUnit;
-        this.stripes = new Lock[stripesNum];
-        IntStream.range(0, stripesNum).forEach(idx -> stripes[idx] = new ReentrantLock());
+        this.stripes = new Stripes(stripesNum == 1 ? 1 : Integer.highestOneBit(Math.min(stripesNum - 1, MAX_STRIPES - 1)) << 1);
     }
 
     @Override
-    public void executeWithLock(T id, Runnable protectedCode) throws ExecutionException, TimeoutException {
-        checkNotNull(id, "id");
-        checkNotNull(protectedCode, "protectedCode");
-        execute(id, convert2callable(protectedCode), defaultTimeAmount, timeUnit);
+    protected LockWrapper retain(T id) {
+        return getKeyLock(id);
     }
 
     /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalArgumentException if id is null
-     * @throws IllegalArgumentException if protectedCode is null
-     * @throws IllegalArgumentException if time unit is null
-     * @throws IllegalArgumentException if time amount is less than zero
+     * Looks entities up taking every stripe lock once for all entities of the stripe.
      */
     @Override
-    public void executeWithLock(T id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
-        checkNotNull(id, "id");
-        checkNotNull(protectedCode, "protectedCode");
-        checkNotNull(timeUnit, "timeUnit");
-        if (timeAmount < 0) {
-            throw new IllegalArgumentException("time amount should be greater than 0");
+    protected void retainAll(List<T> ids, LockWrapper[] retained) {
+        int[] hashes = new int[retained.length];
+        for (int i = 0; i < retained.length; i++) {
+            hashes[i] = Hashing.spread(ids.get(i).hashCode());
+        }
+        Stripes table = stripes;
+        for (int i = 0; i < retained.length; i++) {
+            if (retained[i] != null) {
+                continue;
+            }
+            int stripe = table.index(hashes[i]);
+            ReentrantLock stripeLock = table.locks[stripe];
+            lock(table, stripeLock);
+            try {
+                if (table != stripes) {
+                    // resized meanwhile, go on with the new table
+                    table = stripes;
+                    i--;
+                    continue;
+                }
+                for (int j = i; j < retained.length; j++) {
+                    if (retained[j] == null && table.index(hashes[j]) == stripe) {
+                        LockWrapper result = locks.computeIfAbsent(ids.get(j), StripedLock::new);
+                        result.incrementUsageCount();
+                        retained[j] = result;
+                    }
+                }
+            } finally {
+                stripeLock.unlock();
+            }
         }
-        execute(id, convert2callable(protectedCode), timeAmount, timeUnit);
     }
 
-    @Override
-    public <R> R executeWithLock(T id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
-        checkNotNull(id, "id");
-        checkNotNull(protectedCode, "protectedCode");
-        return execute(id, protectedCode, defaultTimeAmount, timeUnit);
+    /**
+     * @return current number of stripes
+     */
+    int stripeCount() {
+        return stripes.locks.length;
     }
 
     /**
-     * {@inheritDoc}
-     *
-     * @throws IllegalArgumentException if id is null
-     * @throws IllegalArgumentException if protectedCode is null
-     * @throws IllegalArgumentException if time unit is null
-     * @throws IllegalArgumentException if time amount is less than zero
+     * Double the stripe table as if its stripes were contended.
      */
-    @Override
-    public <R> R executeWithLock(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
-        checkNotNull(id, "id");
-        checkNotNull(protectedCode, "protectedCode");
-        checkNotNull(timeUnit, "timeUnit");
-        if (timeAmount < 0) {
-            throw new IllegalArgumentException("time amount should be greater than 0");
-        }
-        return execute(id, protectedCode, timeAmount, timeUnit);
+    void resize() {
+        resize(stripes);
     }
 
-    private <R> R execute(T id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
-        LockWrapper lock = getKeyLock(id);
-        boolean locked = false;
+    private void resize(Stripes table) {
+        if (table.locks.length >= MAX_STRIPES || !resizing.compareAndSet(false, true)) {
+            return;
+        }
         try {
-            locked = lock.tryLock(timeAmount, timeUnit);
-            if (locked) {
-                return protectedCode.call();
+            if (table != stripes) {
+                return;
+            }
+            Stripes grown = new Stripes(table.locks.length << 1);
+            for (ReentrantLock stripeLock : grown.locks) {
+                stripeLock.lock();
+            }
+            try {
+                stripes = grown;
+                // wait for calls which have taken old stripes before the new table was published
+                for (ReentrantLock stripeLock : table.locks) {
+                    stripeLock.lock();
+                    stripeLock.unlock();
+                }
+            } finally {
+                for (ReentrantLock stripeLock : grown.locks) {
+                    stripeLock.unlock();
+                }
             }
-        } catch (Exception ex) {
-            throw new ExecutionException("Exception during execution with lock", ex);
         } finally {
-            releaseLock(id, lock, locked);
+            resizing.set(false);
         }
-        throw new TimeoutException("Operation cannot be executed due to timeout");
     }
 
-    private void releaseLock(T id, LockWrapper lock, boolean locked) {
-        Lock stripeLock = stripes[id.hashCode() % stripes.length];
-        stripeLock.lock();
+    private void releaseLock(T id, LockWrapper lock) {
+        ReentrantLock stripeLock = lockStripe(Hashing.spread(id.hashCode()));
         try {
-            if (locked) {
-                lock.unlock();
-            }
             lock.decrementUsageCount();
             if (!lock.isInUse()) {
                 locks.remove(id);
@@ -131,14 +155,86 @@ public final class StripingEntityLocker<T> implements EntityLocker<T> {
     }
 
     private LockWrapper getKeyLock(T id) {
-        Lock stripeLock = stripes[id.hashCode() % stripes.length];
-        stripeLock.lock();
+        ReentrantLock stripeLock = lockStripe(Hashing.spread(id.hashCode()));
         try {
-            LockWrapper result = locks.computeIfAbsent(id, key -> new LockWrapper());
+            LockWrapper result = locks.computeIfAbsent(id, StripedLock::new);
             result.incrementUsageCount();
             return result;
         } finally {
             stripeLock.unlock();
         }
     }
+
+    /**
+     * Lock stripe of the hash in the current stripe table.
+     */
+    private ReentrantLock lockStripe(int hash) {
+        for (;;) {
+            Stripes table = stripes;
+            ReentrantLock stripeLock = table.locks[table.index(hash)];
+            lock(table, stripeLock);
+            if (table == stripes) {
+                return stripeLock;
+            }
+            stripeLock.unlock();
+        }
+    }
+
+    private void lock(Stripes table, ReentrantLock stripeLock) {
+        if (stripeLock.tryLock()) {
+            return;
+        }
+        if (table.contended(System.nanoTime())) {
+            resize(table);
+        }
+        stripeLock.lock();
+    }
+
+    private static int stripesFor(int processors) {
+        return Integer.highestOneBit(Math.max(processors * 4, 16) - 1) << 1;
+    }
+
+    private static final class Stripes {
+        private final ReentrantLock[] locks;
+        private final AtomicInteger contention = new AtomicInteger();
+        private volatile long windowStart = System.nanoTime();
+
+        Stripes(int size) {
+            this.locks = new ReentrantLock[size];
+            for (int i = 0; i < size; i++) {
+                locks[i] = new ReentrantLock();
+            }
+        }
+
+        int index(int hash) {
+            return hash & (locks.length - 1);
+        }
+
+        /**
+         * Register a busy stripe.
+         *
+         * @return true if stripes were found busy often enough recently to grow the table
+         */
+        boolean contended(long now) {
+            if (now - windowStart > CONTENTION_WINDOW_NANOS) {
+                windowStart = now;
+                contention.set(0);
+            }
+            return contention.incrementAndGet() >= locks.length * CONTENTION_THRESHOLD;
+        }
+    }
+
+    private final class StripedLock extends LockWrapper {
+        private final T id;
+
+        StripedLock(T id) {
+            super(id);
+            this.id = id;
+        }
+
+        @Override
+        public void release() {
+            releaseLock(id, this);
+        }
+    }
 }
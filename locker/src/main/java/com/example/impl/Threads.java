@@ -0,0 +1,32 @@
+package com.example.impl;
+
+/**
+ * Thread specific behaviour of busy waits. This version is used on Java 11 to 20,
+ * the multi-release jar overrides it for Java 21+ where threads may be virtual.
+ */
+final class Threads {
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private Threads() {
+    }
+
+    /**
+     * @return true if current thread is virtual, so it must not spin for long
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Back off in a busy wait loop.
+     *
+     * @param spins number of failed attempts so far
+     */
+    static void spinWait(int spins) {
+        if (spins % SPINS_BEFORE_YIELD == 0) {
+            Thread.yield();
+        } else {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.impl;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel: a single daemon thread advances over a ring of buckets once per tick and runs
+ * tasks of expired timeouts. Scheduling and cancellation are constant time and never block,
+ * at the cost of tick granularity of timeouts.
+ * <p>
+ * A cancelled timeout drops its task right away, only the empty entry waits in its bucket for the wheel
+ * to pass by. While no timeout is pending the thread parks instead of ticking.
+ */
+final class TimerWheel {
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    private static final TimerWheel SHARED = new TimerWheel(DEFAULT_TICK_NANOS, DEFAULT_WHEEL_SIZE);
+
+    private final long tickNanos;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.nanoTime();
+    private final AtomicBoolean started = new AtomicBoolean();
+    /**
+     * Timeouts neither expired nor cancelled yet.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Thread worker;
+    /**
+     * Accessed by worker thread only.
+     */
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickNanos, int wheelSize) {
+        this.tickNanos = tickNanos;
+        int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        this.buckets = (ArrayDeque<Timeout>[]) new ArrayDeque<?>[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Timer shared by all lockers, its thread is started on first use.
+     */
+    static TimerWheel shared() {
+        return SHARED;
+    }
+
+    /**
+     * Run task once delay expires, on the timer thread, so the task should be short.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(delay));
+        // counted before the worker can see it, so expiry never takes the count below zero
+        boolean idle = pending.getAndIncrement() == 0;
+        scheduled.add(timeout);
+        if (idle) {
+            LockSupport.unpark(worker);
+        }
+        if (!started.get() && started.compareAndSet(false, true)) {
+            start();
+        }
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts neither expired nor cancelled yet
+     */
+    int pending() {
+        return pending.get();
+    }
+
+    /**
+     * @return timer thread, null until first timeout is scheduled
+     */
+    Thread worker() {
+        return worker;
+    }
+
+    private void start() {
+        Thread thread = new Thread(this::work, "entity-locker-timer");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    private void work() {
+        for (;;) {
+            if (pending.get() == 0) {
+                awaitScheduled();
+            }
+            long deadline = tickNanos * (tick + 1);
+            long sleep;
+            while ((sleep = deadline - (System.nanoTime() - startTime)) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            transferScheduled();
+            expire(buckets[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Park until a timeout is scheduled, then skip the ticks missed meanwhile. Buckets hold cancelled
+     * entries only at this point, so they are dropped rather than visited.
+     */
+    private void awaitScheduled() {
+        for (ArrayDeque<Timeout> bucket : buckets) {
+            bucket.clear();
+        }
+        while (pending.get() == 0) {
+            LockSupport.park(this);
+        }
+        tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.task == null) {
+                continue;
+            }
+            long expiryTick = timeout.deadline / tickNanos;
+            timeout.rounds = (expiryTick - tick) / buckets.length;
+            // already expired ones go to the current bucket
+            buckets[(int) (Math.max(expiryTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket, long now) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            Timeout timeout = it.next();
+            if (timeout.task == null) {
+                it.remove();
+            } else if (timeout.rounds <= 0 && timeout.deadline <= now) {
+                it.remove();
+                Runnable task = timeout.claim();
+                if (task == null) {
+                    // cancelled meanwhile
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    // task failure must not stop the timer
+                    Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), ex);
+                }
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    static final class Timeout {
+        private static final AtomicReferenceFieldUpdater<Timeout, Runnable> TASK =
+                AtomicReferenceFieldUpdater.newUpdater(Timeout.class, Runnable.class, "task");
+
+        private final TimerWheel wheel;
+        private final long deadline;
+        private long rounds;
+        /**
+         * Null once expired or cancelled, so the task isn't retained until the wheel gets to the entry.
+         */
+        private volatile Runnable task;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            claim();
+        }
+
+        /**
+         * @return task if this call expired or cancelled the timeout, null if it was done already
+         */
+        private Runnable claim() {
+            Runnable claimed = TASK.getAndSet(this, null);
+            if (claimed != null) {
+                wheel.pending.decrementAndGet();
+            }
+            return claimed;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.impl;
+
+/**
+ * Thread specific behaviour of busy waits on Java 21+. A virtual thread never spins:
+ * yield unmounts it, so its carrier runs other virtual threads, including the one it waits for.
+ */
+final class Threads {
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private Threads() {
+    }
+
+    /**
+     * @return true if current thread is virtual, so it must not spin for long
+     */
+    static boolean isVirtual() {
+        return Thread.currentThread().isVirtual();
+    }
+
+    /**
+     * Back off in a busy wait loop.
+     *
+     * @param spins number of failed attempts so far
+     */
+    static void spinWait(int spins) {
+        if (spins % SPINS_BEFORE_YIELD == 0 || Thread.currentThread().isVirtual()) {
+            Thread.yield();
+        } else {
+            Thread.onSpinWait();
+        }
+    }
+}
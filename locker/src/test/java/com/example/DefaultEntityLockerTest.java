@@ -0,0 +1,144 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.example.impl.SimpleEntityLocker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Default methods of {@link EntityLocker} on a locker implementing only the basic {@code executeWithLock} methods.
+ */
+public class DefaultEntityLockerTest {
+    private final EntityLocker<String> testObj = new BasicLocker(new SimpleEntityLocker<>());
+
+    @Test
+    public void testDefaultsRunUnderLock() throws Exception {
+        Assertions.assertEquals(2, (int) testObj.executeWithLock("1", 1, (Integer arg) -> arg + 1));
+        int[] sum = new int[1];
+        testObj.executeWithLock("1", 1, 2, (a, b) -> sum[0] = a + b);
+        Assertions.assertEquals(3, sum[0]);
+        Assertions.assertEquals(1, testObj.executeWithReadLock("1", () -> 1));
+        Assertions.assertEquals(1, testObj.executeWithOptimisticRead("1", () -> 1));
+        Assertions.assertEquals(1, testObj.executeCombined("1", () -> 1));
+        Assertions.assertEquals(1, testObj.executeWithLock("1", Deadline.after(1, TimeUnit.SECONDS), () -> 1));
+        assertThrows(TimeoutException.class,
+            () -> testObj.executeWithLock("1", Deadline.after(0, TimeUnit.SECONDS), () -> 1));
+        assertThrows(UnsupportedOperationException.class, () -> testObj.acquire("1"));
+    }
+
+    @Test
+    public void testTryExecuteWhenLockIsBusy() throws Exception {
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            testObj.executeWithLock("1", () -> {
+                Assertions.assertFalse(other.submit(() -> testObj.tryExecuteWithLock("1", () -> {}, 0, TimeUnit.MILLISECONDS)).get());
+                Assertions.assertEquals(-1, other.submit(() -> testObj.tryExecuteWithLock("1", () -> 1, -1, 0, TimeUnit.MILLISECONDS)).get());
+                return null;
+            });
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testMultipleEntities() throws Exception {
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            int result = testObj.executeWithLocks(Arrays.asList("3", "1", "2", "1"), () -> {
+                for (String id : Arrays.asList("1", "2", "3")) {
+                    Assertions.assertFalse(other.submit(() -> testObj.tryExecuteWithLock(id, () -> {}, 0, TimeUnit.MILLISECONDS)).get());
+                }
+                return 1;
+            });
+            Assertions.assertEquals(1, result);
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> testObj.executeWithLocks(Arrays.asList("1", "2"), () -> {
+                    throw new IllegalStateException();
+                }));
+            // wrapped once, not by every nested lock
+            Assertions.assertTrue(failure.getCause() instanceof IllegalStateException);
+
+            CountDownLatch locked = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            Future<?> holder = other.submit(() -> testObj.executeWithLock("2", () -> {
+                locked.countDown();
+                done.await();
+                return null;
+            }));
+            locked.await();
+            assertThrows(TimeoutException.class,
+                () -> testObj.executeWithLocks(Arrays.asList("1", "2", "3"), () -> 1, 10, TimeUnit.MILLISECONDS));
+            done.countDown();
+            holder.get();
+            Assertions.assertTrue(other.submit(() -> testObj.tryExecuteWithLock("1", () -> {}, 0, TimeUnit.MILLISECONDS)).get());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testMultipleEntitiesInOppositeOrder() throws Exception {
+        int threads = 4;
+        int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // "Aa" and "BB" have equal hash codes, so they are locked holding the tie lock
+                List<String> ids = t % 2 == 0 ? Arrays.asList("Aa", "BB", "1") : Arrays.asList("1", "BB", "Aa");
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        testObj.executeWithLocks(ids, () -> counter[0]++);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(threads * 2_000, counter[0]);
+    }
+
+    private static final class BasicLocker implements EntityLocker<String> {
+        private final EntityLocker<String> delegate;
+
+        BasicLocker(EntityLocker<String> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void executeWithLock(String id, Runnable protectedCode) throws ExecutionException, TimeoutException {
+            delegate.executeWithLock(id, protectedCode);
+        }
+
+        @Override
+        public void executeWithLock(String id, Runnable protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+            delegate.executeWithLock(id, protectedCode, timeAmount, timeUnit);
+        }
+
+        @Override
+        public <R> R executeWithLock(String id, Callable<R> protectedCode) throws ExecutionException, TimeoutException {
+            return delegate.executeWithLock(id, protectedCode);
+        }
+
+        @Override
+        public <R> R executeWithLock(String id, Callable<R> protectedCode, long timeAmount, TimeUnit timeUnit) throws ExecutionException, TimeoutException {
+            return delegate.executeWithLock(id, protectedCode, timeAmount, timeUnit);
+        }
+    }
+}
@@ -2,12 +2,18 @@ package com.example;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.example.impl.StripingEntityLocker;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -16,9 +22,11 @@ import org.junit.jupiter.params.provider.CsvSource;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith(MockitoExtension.class)
-public class EntityLockerTest {
+public abstract class EntityLockerTest {
 
-    StripingEntityLocker<String> testObj = new StripingEntityLocker<>();
+    protected EntityLocker<String> testObj = createLocker();
+
+    protected abstract EntityLocker<String> createLocker();
 
     @Test
     public void testOperationSingleId() throws ExecutionException, TimeoutException {
@@ -66,4 +74,280 @@ public class EntityLockerTest {
         assertThrows(IllegalArgumentException.class,
             () -> testObj.executeWithLock(id, runnable, timeoutAmount, unit));
     }
+
+    @Test
+    public void testOperationWithArguments() throws ExecutionException, TimeoutException {
+        AtomicInteger cnt = new AtomicInteger();
+        Assertions.assertEquals(2, testObj.executeWithLock("1", cnt, AtomicInteger::incrementAndGet) + 1);
+        testObj.executeWithLock("1", cnt, 2, AtomicInteger::addAndGet, 1, TimeUnit.SECONDS);
+        Assertions.assertEquals(3, cnt.get());
+    }
+
+    @Test
+    public void testAcquiredHandle() throws Exception {
+        try (LockHandle ignored = testObj.acquire("1", 1, TimeUnit.SECONDS)) {
+            Assertions.assertEquals(1, testObj.executeWithLock("1", () -> 1));
+        }
+        Assertions.assertEquals(1, testObj.executeWithLock("1", () -> 1, 0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTryExecuteWhenLockIsBusy() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                testObj.executeWithLock("1", () -> {
+                    locked.countDown();
+                    done.await();
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            Assertions.assertFalse(testObj.tryExecuteWithLock("1", () -> {}, 0, TimeUnit.MILLISECONDS));
+            Assertions.assertEquals(-1, testObj.tryExecuteWithLock("1", () -> 1, -1, 10, TimeUnit.MILLISECONDS));
+            Assertions.assertNull(testObj.tryAcquire("1", 0, TimeUnit.MILLISECONDS));
+            TimeoutException timeout = assertThrows(TimeoutException.class,
+                () -> testObj.executeWithLock("1", () -> 1, 0, TimeUnit.MILLISECONDS));
+            Assertions.assertEquals(0, timeout.getStackTrace().length);
+            Assertions.assertTrue(testObj.tryExecuteWithLock("2", () -> {}, 0, TimeUnit.MILLISECONDS));
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+        Assertions.assertEquals(1, testObj.tryExecuteWithLock("1", () -> 1, -1, 0, TimeUnit.MILLISECONDS));
+        try (LockHandle handle = testObj.tryAcquire("1", 0, TimeUnit.MILLISECONDS)) {
+            Assertions.assertNotNull(handle);
+        }
+    }
+
+    @Test
+    public void testReadLockIsShared() throws Exception {
+        try (LockHandle ignored = testObj.acquireRead("1", 0, TimeUnit.MILLISECONDS)) {
+            ExecutorService reader = Executors.newSingleThreadExecutor();
+            try {
+                reader.submit(() -> {
+                    Assertions.assertEquals(1, testObj.executeWithReadLock("1", () -> 1, 0, TimeUnit.MILLISECONDS));
+                    Assertions.assertFalse(testObj.tryExecuteWithLock("1", () -> {}, 0, TimeUnit.MILLISECONDS));
+                    assertThrows(TimeoutException.class,
+                        () -> testObj.executeWithWriteLock("1", () -> 1, 0, TimeUnit.MILLISECONDS));
+                    return null;
+                }).get();
+            } finally {
+                reader.shutdown();
+            }
+        }
+        Assertions.assertEquals(1, testObj.executeWithWriteLock("1", () -> 1, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testOptimisticRead() throws Exception {
+        int[] state = {1, 1};
+        Assertions.assertEquals(2, testObj.executeWithOptimisticRead("1", () -> state[0] + state[1]));
+        // reads inside write lock fall back to shared lock, which write lock holder can take
+        Assertions.assertEquals(2, testObj.executeWithLock("1",
+            () -> testObj.executeWithOptimisticRead("1", () -> state[0] + state[1], 0, TimeUnit.MILLISECONDS)));
+    }
+
+    @Test
+    public void testMultipleEntities() throws Exception {
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            int result = testObj.executeWithLocks(Arrays.asList("3", "1", "2", "1"), () -> {
+                other.submit(() -> {
+                    for (String id : Arrays.asList("1", "2", "3")) {
+                        Assertions.assertFalse(testObj.tryExecuteWithLock(id, () -> {}, 0, TimeUnit.MILLISECONDS));
+                    }
+                    return null;
+                }).get();
+                return 1;
+            });
+            Assertions.assertEquals(1, result);
+            // other thread holds "2", none of the locks is kept after timeout
+            CountDownLatch locked = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            Future<?> holder = other.submit(() -> testObj.executeWithLock("2", () -> {
+                locked.countDown();
+                done.await();
+                return null;
+            }));
+            locked.await();
+            assertThrows(TimeoutException.class,
+                () -> testObj.executeWithLocks(Arrays.asList("1", "2", "3"), () -> 1, 10, TimeUnit.MILLISECONDS));
+            done.countDown();
+            holder.get();
+            other.submit(() -> {
+                for (String id : Arrays.asList("1", "2", "3")) {
+                    Assertions.assertTrue(testObj.tryExecuteWithLock(id, () -> {}, 0, TimeUnit.MILLISECONDS));
+                }
+                return null;
+            }).get();
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testMultipleEntitiesInOppositeOrder() throws Exception {
+        int threads = 4;
+        int iterations = 5_000;
+        int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                List<String> ids = t % 2 == 0 ? Arrays.asList("1", "2", "3") : Arrays.asList("3", "2", "1");
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < iterations; i++) {
+                        testObj.executeWithLocks(ids, () -> counter[0]++);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(threads * iterations, counter[0]);
+    }
+
+    @Test
+    public void testMutualExclusion() throws Exception {
+        int threads = 8;
+        int iterations = 10_000;
+        int[] counters = new int[4];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < iterations; i++) {
+                        int idx = i % counters.length;
+                        testObj.executeWithLock(String.valueOf(idx), () -> {
+                            counters[idx]++;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int counter : counters) {
+            Assertions.assertEquals(threads * iterations / counters.length, counter);
+        }
+    }
+
+    @Test
+    public void testCombinedExecution() throws Exception {
+        int threads = 8;
+        int iterations = 10_000;
+        int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                boolean combined = t % 2 == 0;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < iterations; i++) {
+                        Callable<Integer> increment = () -> ++counter[0];
+                        Integer result = combined ? testObj.executeCombined("1", increment) : testObj.executeWithLock("1", increment);
+                        Assertions.assertTrue(result > 0);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(threads * iterations, counter[0]);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> testObj.executeCombined("1", () -> {
+            throw new IllegalStateException();
+        }));
+        Assertions.assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testCombinedExecutionTimeout() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicInteger runs = new AtomicInteger();
+        try (LockHandle ignored = testObj.acquire("1")) {
+            Assertions.assertEquals(1, testObj.executeCombined("1", runs::incrementAndGet, 0, TimeUnit.MILLISECONDS));
+            Future<?> combined = executor.submit(() -> testObj.executeCombined("1", runs::incrementAndGet, 10, TimeUnit.MILLISECONDS));
+            java.util.concurrent.ExecutionException failure = assertThrows(java.util.concurrent.ExecutionException.class, combined::get);
+            Assertions.assertTrue(failure.getCause() instanceof TimeoutException);
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(2, testObj.executeCombined("1", runs::incrementAndGet));
+    }
+
+    @Test
+    public void testNestedLockingGivesLocksBack() throws Exception {
+        int result = testObj.executeWithLock("1", () -> {
+            try (LockHandle ignored = testObj.acquireRead("1")) {
+                return testObj.executeWithLock("1", () -> testObj.executeWithOptimisticRead("1", () -> testObj.executeCombined("1", () -> 4)));
+            }
+        });
+        Assertions.assertEquals(4, result);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assertions.assertTrue(executor.submit(() -> testObj.tryExecuteWithLock("1", () -> {}, 1, TimeUnit.SECONDS)).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeadlineBoundsNestedLocking() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> testObj.executeWithLock("2", () -> {
+                locked.countDown();
+                released.await();
+                return null;
+            }));
+            locked.await();
+            long start = System.nanoTime();
+            ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> testObj.executeWithLock("1", Deadline.after(50, TimeUnit.MILLISECONDS), () -> testObj.executeWithLock("2", () -> 1)));
+            Assertions.assertTrue(ex.getCause() instanceof TimeoutException);
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Assertions.assertNull(Deadline.current());
+        } finally {
+            released.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testExpiredDeadlineFailsWithoutLocking() throws Exception {
+        Deadline deadline = Deadline.after(0, TimeUnit.MILLISECONDS);
+        assertThrows(TimeoutException.class, () -> testObj.executeWithLock("1", deadline, () -> 1));
+        try (Deadline.Scope ignored = deadline.enter()) {
+            Assertions.assertFalse(testObj.tryExecuteWithLock("1", () -> {}, 1, TimeUnit.SECONDS));
+            assertThrows(TimeoutException.class, () -> testObj.executeWithLocks(List.of("1", "2"), () -> 1));
+            // enclosing deadline can't be extended
+            try (Deadline.Scope nested = Deadline.after(1, TimeUnit.SECONDS).enter()) {
+                assertThrows(TimeoutException.class, () -> testObj.acquire("1"));
+            }
+        }
+        Assertions.assertEquals(1, testObj.executeWithLock("1", () -> 1));
+    }
 }
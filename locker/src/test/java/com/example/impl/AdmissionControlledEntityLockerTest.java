@@ -0,0 +1,120 @@
+package com.example.impl;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockRejectedException;
+import com.example.LockTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControlledEntityLockerTest extends EntityLockerTest {
+    private ExecutorService executor;
+    private CountDownLatch released;
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return new AdmissionControlledEntityLocker<>(new SimpleEntityLocker<>(), 1000, 10_000);
+    }
+
+    @BeforeEach
+    public void startExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+        released = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void stopExecutor() {
+        released.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejectsWaitersOverEntityLimit() throws Exception {
+        AdmissionControlledEntityLocker<String> locker = new AdmissionControlledEntityLocker<>(new SimpleEntityLocker<>(), 1);
+        hold(locker, "hot");
+        Future<?> waiter = waitFor(locker, "hot");
+        long start = System.nanoTime();
+        Assertions.assertThrows(LockRejectedException.class, () -> locker.executeWithLock("hot", () -> {}, 1, TimeUnit.MINUTES));
+        Assertions.assertThrows(LockRejectedException.class, () -> locker.executeWithLocks(List.of("cold", "hot"), () -> null));
+        Assertions.assertFalse(locker.tryExecuteWithLock("hot", () -> {}, 1, TimeUnit.MINUTES));
+        Assertions.assertNull(locker.tryAcquire("hot", 1, TimeUnit.MINUTES));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        // other entities are not limited
+        Assertions.assertTrue(locker.tryExecuteWithLock("cold", () -> {}, 1, TimeUnit.MINUTES));
+
+        released.countDown();
+        waiter.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(4, locker.getRejectedCount());
+        Assertions.assertEquals(0, locker.getWaitingThreads());
+        locker.executeWithLock("hot", () -> {});
+    }
+
+    @Test
+    public void testDuplicateIdsAreWaitedForOnce() throws Exception {
+        AdmissionControlledEntityLocker<String> locker = new AdmissionControlledEntityLocker<>(new SimpleEntityLocker<>(), 1);
+        hold(locker, "hot");
+        LockTimeoutException timeout = Assertions.assertThrows(LockTimeoutException.class,
+            () -> locker.executeWithLocks(List.of("hot", "cold", "hot"), () -> null, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(timeout instanceof LockRejectedException);
+        Assertions.assertEquals(0, locker.getRejectedCount());
+        Assertions.assertEquals(0, locker.getWaitingThreads());
+    }
+
+    @Test
+    public void testRejectsWaitersOverGlobalLimit() throws Exception {
+        AdmissionControlledEntityLocker<String> locker = new AdmissionControlledEntityLocker<>(
+            new SimpleEntityLocker<>(), AdmissionControlledEntityLocker.UNLIMITED, 1);
+        hold(locker, "1", "2");
+        Future<?> waiter = waitFor(locker, "1");
+        Assertions.assertThrows(LockRejectedException.class, () -> locker.acquire("2"));
+        Assertions.assertThrows(LockRejectedException.class, () -> locker.executeCombined("2", () -> null));
+        // uncontended locking is always admitted
+        locker.executeWithLock("3", () -> {});
+
+        released.countDown();
+        waiter.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(2, locker.getRejectedCount());
+    }
+
+    @Test
+    public void testZeroWaitersLimit() throws Exception {
+        AdmissionControlledEntityLocker<String> locker = new AdmissionControlledEntityLocker<>(new SimpleEntityLocker<>(), 0);
+        hold(locker, "1");
+        Assertions.assertThrows(LockRejectedException.class, () -> locker.executeWithLock("1", () -> {}));
+        locker.executeWithLocks(List.of("2", "3"), () -> null);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new AdmissionControlledEntityLocker<>(new SimpleEntityLocker<>(), -1));
+    }
+
+    /**
+     * Lock entities by another thread until the test ends.
+     */
+    private void hold(EntityLocker<String> locker, String... ids) throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        executor.submit(() -> locker.executeWithLocks(List.of(ids), () -> {
+            locked.countDown();
+            released.await();
+            return null;
+        }));
+        locked.await();
+    }
+
+    private Future<?> waitFor(AdmissionControlledEntityLocker<String> locker, String id) throws InterruptedException {
+        Future<?> waiter = executor.submit(() -> {
+            locker.executeWithLock(id, () -> {});
+            return null;
+        });
+        while (locker.getWaitingThreads() == 0) {
+            Thread.sleep(1);
+        }
+        return waiter;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.impl;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GlobalLockingEntityLockerTest extends EntityLockerTest {
+    private ExecutorService executor;
+    private CountDownLatch released;
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return new GlobalLockingEntityLocker<>(new SimpleEntityLocker<>());
+    }
+
+    @BeforeEach
+    public void startExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+        released = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void stopExecutor() {
+        released.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testGlobalLockWaitsForEntityCalls() throws Exception {
+        GlobalLockingEntityLocker<String> locker = new GlobalLockingEntityLocker<>(new SimpleEntityLocker<>());
+        CountDownLatch locked = new CountDownLatch(1);
+        executor.submit(() -> locker.executeWithReadLock("1", () -> {
+            locked.countDown();
+            released.await();
+            return null;
+        }));
+        locked.await();
+
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithGlobalLock(() -> null, 10, TimeUnit.MILLISECONDS));
+        // entity calls are not blocked by the failed attempt
+        locker.executeWithLock("2", () -> {}, 10, TimeUnit.MILLISECONDS);
+
+        Future<Integer> global = executor.submit(() -> locker.executeWithGlobalLock(() -> 1));
+        released.countDown();
+        Assertions.assertEquals(1, global.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGlobalLockIsWokenByExitingEntityCall() throws Exception {
+        GlobalLockingEntityLocker<String> locker = new GlobalLockingEntityLocker<>(new SimpleEntityLocker<>());
+        for (int i = 0; i < 1000; i++) {
+            CountDownLatch exiting = new CountDownLatch(1);
+            Future<?> entity = executor.submit(() -> locker.executeWithLock("1", () -> {
+                exiting.await();
+                return null;
+            }));
+            Future<Integer> global = executor.submit(() -> locker.executeWithGlobalLock(() -> 1));
+            // the entity call leaves while the global locker is being published
+            exiting.countDown();
+            entity.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, global.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testGlobalLockBlocksEntityCalls() throws Exception {
+        GlobalLockingEntityLocker<String> locker = new GlobalLockingEntityLocker<>(new SimpleEntityLocker<>());
+        CountDownLatch locked = new CountDownLatch(1);
+        executor.submit(() -> locker.executeWithGlobalLock(() -> {
+            locked.countDown();
+            released.await();
+            return null;
+        }));
+        locked.await();
+
+        Assertions.assertFalse(locker.tryExecuteWithLock("1", () -> {}, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertNull(locker.tryAcquire("1", 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithOptimisticRead("1", () -> null, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithGlobalLock(() -> null, 10, TimeUnit.MILLISECONDS));
+
+        Future<Integer> entity = executor.submit(() -> locker.executeWithLock("1", () -> 1));
+        released.countDown();
+        Assertions.assertEquals(1, entity.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNestedCalls() throws Exception {
+        GlobalLockingEntityLocker<String> locker = new GlobalLockingEntityLocker<>(new SimpleEntityLocker<>());
+        int res = locker.executeWithGlobalLock(() -> locker.executeWithLock("1",
+            () -> locker.executeWithGlobalLock(() -> locker.executeWithLocks(List.of("1", "2"), () -> 1))));
+        Assertions.assertEquals(1, res);
+        locker.executeWithLock("1", () -> {
+            Assertions.assertThrows(IllegalStateException.class, () -> locker.executeWithGlobalLock(() -> null));
+        });
+        locker.executeWithGlobalLock(() -> null, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testEscalation() throws Exception {
+        GlobalLockingEntityLocker<String> locker = new GlobalLockingEntityLocker<>(new SimpleEntityLocker<>(), 2);
+        Assertions.assertEquals(1, locker.executeWithLocks(List.of("1", "2", "2"), () -> 1));
+        Assertions.assertEquals(0, locker.getEscalationCount());
+        Assertions.assertEquals(2, locker.executeWithLocks(List.of("1", "2", "3"), () -> 2));
+        Assertions.assertEquals(1, locker.getEscalationCount());
+        // nested locking of many entities is not escalated
+        locker.executeWithLock("1", () -> locker.executeWithLocks(List.of("1", "2", "3"), () -> null));
+        Assertions.assertEquals(1, locker.getEscalationCount());
+
+        CountDownLatch locked = new CountDownLatch(1);
+        executor.submit(() -> locker.executeWithLock("4", () -> {
+            locked.countDown();
+            released.await();
+            return null;
+        }));
+        locked.await();
+        Assertions.assertThrows(LockTimeoutException.class,
+            () -> locker.executeWithLocks(List.of("5", "6", "7"), () -> null, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new GlobalLockingEntityLocker<>(new SimpleEntityLocker<>(), 0));
+    }
+}
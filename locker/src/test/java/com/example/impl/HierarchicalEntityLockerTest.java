@@ -0,0 +1,120 @@
+package com.example.impl;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockHandle;
+import com.example.LockTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class HierarchicalEntityLockerTest extends EntityLockerTest {
+    private ExecutorService executor;
+    private CountDownLatch released;
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return tenants();
+    }
+
+    @BeforeEach
+    public void startExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+        released = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void stopExecutor() {
+        released.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testGroupLockExcludesEntitiesOfGroup() throws Exception {
+        HierarchicalEntityLocker<String, String> locker = tenants();
+        CountDownLatch locked = new CountDownLatch(1);
+        executor.submit(() -> locker.executeWithGroupLock("a", () -> {
+            locked.countDown();
+            released.await();
+            return null;
+        }));
+        locked.await();
+
+        Assertions.assertFalse(locker.tryExecuteWithLock("a:1", () -> {}, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertNull(locker.tryAcquire("a:2", 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithReadLock("a:1", () -> null, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithLocks(List.of("b:1", "a:1"), () -> null, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithGroupReadLock("a", () -> null, 10, TimeUnit.MILLISECONDS));
+        // other groups are not locked
+        locker.executeWithLock("b:1", () -> {}, 10, TimeUnit.MILLISECONDS);
+        locker.executeWithGroupLock("b", () -> null, 10, TimeUnit.MILLISECONDS);
+
+        released.countDown();
+        locker.executeWithLock("a:1", () -> {});
+        locker.executeWithLocks(List.of("a:1", "b:1"), () -> null);
+    }
+
+    @Test
+    public void testGroupLockWaitsForEntities() throws Exception {
+        HierarchicalEntityLocker<String, String> locker = tenants();
+        CountDownLatch locked = new CountDownLatch(1);
+        executor.submit(() -> locker.executeWithLock("a:1", () -> {
+            locked.countDown();
+            released.await();
+            return null;
+        }));
+        locked.await();
+
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithGroupLock("a", () -> null, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithGroupReadLock("a", () -> null, 10, TimeUnit.MILLISECONDS));
+        // intentions don't conflict
+        locker.executeWithLock("a:2", () -> {}, 10, TimeUnit.MILLISECONDS);
+
+        Future<Integer> group = executor.submit(() -> locker.executeWithGroupLock("a", () -> 1));
+        released.countDown();
+        Assertions.assertEquals(1, group.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGroupReadLockAllowsEntityReads() throws Exception {
+        HierarchicalEntityLocker<String, String> locker = tenants();
+        CountDownLatch locked = new CountDownLatch(1);
+        executor.submit(() -> locker.executeWithGroupReadLock("a", () -> {
+            locked.countDown();
+            released.await();
+            return null;
+        }));
+        locked.await();
+
+        Assertions.assertEquals(1, locker.executeWithReadLock("a:1", () -> 1, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(2, locker.executeWithOptimisticRead("a:1", () -> 2, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(3, locker.executeWithGroupReadLock("a", () -> 3, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.executeWithLock("a:1", () -> null, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testGroupOwnerLocksEntitiesOfGroup() throws Exception {
+        HierarchicalEntityLocker<String, String> locker = tenants();
+        int res = locker.executeWithGroupLock("a", () -> locker.executeWithLock("a:1",
+            () -> locker.executeWithGroupLock("a", () -> locker.executeWithReadLock("a:2", () -> 1))));
+        Assertions.assertEquals(1, res);
+
+        try (LockHandle ignored = locker.acquireGroup("a", 1, TimeUnit.SECONDS)) {
+            locker.executeWithLocks(List.of("a:1", "a:2"), () -> null);
+        }
+        Future<?> other = executor.submit(() -> locker.executeWithGroupLock("a", () -> null));
+        other.get(5, TimeUnit.SECONDS);
+    }
+
+    private static HierarchicalEntityLocker<String, String> tenants() {
+        return new HierarchicalEntityLocker<>(new SimpleEntityLocker<>(), id -> id.substring(0, Math.max(id.indexOf(':'), 0)));
+    }
+}
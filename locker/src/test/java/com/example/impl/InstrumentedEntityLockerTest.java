@@ -0,0 +1,160 @@
+package com.example.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import com.example.LockRejectedException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class InstrumentedEntityLockerTest extends EntityLockerTest {
+    private LockMetrics<String> metrics;
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        metrics = new LockMetrics<>();
+        return new InstrumentedEntityLocker<>(new SimpleEntityLocker<>(), metrics);
+    }
+
+    @Test
+    public void testUncontendedAcquisitions() throws Exception {
+        testObj.executeWithLock("1", () -> {});
+        testObj.executeWithLock("1", () -> 1);
+        Assertions.assertThrows(ExecutionException.class, () -> testObj.executeWithLock("1", () -> {
+            throw new IllegalStateException();
+        }));
+
+        Assertions.assertEquals(3, metrics.getAcquireCount());
+        Assertions.assertEquals(0, metrics.getContendedCount());
+        Assertions.assertEquals(1, metrics.getFailureCount());
+        Assertions.assertEquals(0, metrics.waitTimes().max());
+        Assertions.assertEquals(3, metrics.holdTimes().count());
+    }
+
+    @Test
+    public void testContendedEntity() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> waiter;
+            try (LockHandle ignored = testObj.acquire("hot")) {
+                waiter = executor.submit(() -> {
+                    testObj.executeWithLock("hot", () -> {});
+                    return null;
+                });
+                while (metrics.waiters("hot") == 0) {
+                    Thread.sleep(1);
+                }
+                Assertions.assertEquals(1, metrics.getWaitingThreads());
+                Assertions.assertFalse(executor.submit(() -> testObj.tryExecuteWithLock("hot", () -> {}, 10, TimeUnit.MILLISECONDS)).get());
+                Assertions.assertEquals(1, metrics.getTimeoutCount());
+            }
+            waiter.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        Assertions.assertEquals(0, metrics.waiters("hot"));
+        Assertions.assertEquals(2, metrics.getContendedCount());
+        Assertions.assertEquals(2, metrics.getAcquireCount());
+        Assertions.assertTrue(metrics.getWaitTimeMax() > 0);
+        Assertions.assertEquals(Map.of("hot", 2L), metrics.hotKeys());
+    }
+
+    @Test
+    public void testInterruptsAndRejectionsAreNotTimeouts() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> waiter;
+            try (LockHandle ignored = testObj.acquire("hot")) {
+                waiter = executor.submit(() -> testObj.acquire("hot"));
+                while (metrics.waiters("hot") == 0) {
+                    Thread.sleep(1);
+                }
+                waiter.cancel(true);
+                while (metrics.getInterruptCount() == 0) {
+                    Thread.sleep(1);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        EntityLocker<String> bounded = new InstrumentedEntityLocker<>(
+            new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 1), metrics);
+        Assertions.assertThrows(LockRejectedException.class, () -> bounded.executeWithLocks(List.of("1", "2"), () -> null));
+
+        Assertions.assertEquals(1, metrics.getInterruptCount());
+        Assertions.assertEquals(2, metrics.getRejectionCount());
+        Assertions.assertEquals(0, metrics.getTimeoutCount());
+        Assertions.assertEquals(0, metrics.getWaitingThreads());
+    }
+
+    @Test
+    public void testDuplicateIdsAreReportedOnce() throws Exception {
+        testObj.executeWithLocks(List.of("1", "2", "1"), () -> null);
+
+        Assertions.assertEquals(2, metrics.getAcquireCount());
+        Assertions.assertEquals(2, metrics.holdTimes().count());
+        Assertions.assertEquals(0, metrics.getWaitingThreads());
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        testObj.executeWithLock("1", () -> {});
+        ObjectName name = metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Assertions.assertEquals(1L, server.getAttribute(name, "AcquireCount"));
+            Assertions.assertNotNull(server.getAttribute(name, "HotKeys"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assertions.assertEquals(1000, histogram.count());
+        Assertions.assertEquals(1_000_000, histogram.max());
+        Assertions.assertEquals(500_000, histogram.percentile(50), 500_000 / 8);
+        Assertions.assertEquals(990_000, histogram.percentile(99), 990_000 / 8);
+        Assertions.assertEquals(1_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void testHotKeySketchKeepsFrequentKeys() {
+        HotKeySketch<Integer> sketch = new HotKeySketch<>(4);
+        for (int i = 0; i < 1000; i++) {
+            sketch.offer(i % 2 == 0 ? 7 : i);
+        }
+        Map.Entry<Integer, Long> top = sketch.top().entrySet().iterator().next();
+        Assertions.assertEquals(7, top.getKey());
+        Assertions.assertTrue(top.getValue() >= 500);
+    }
+
+    @Test
+    public void testStripedHotKeySketchKeepsFrequentKeys() {
+        HotKeySketch<Integer> sketch = new HotKeySketch<>(256);
+        for (int i = 0; i < 100_000; i++) {
+            sketch.offer(i % 4 == 0 ? 7 : i % 4 == 1 ? 13 : i);
+        }
+        Map<Integer, Long> top = sketch.top();
+        Assertions.assertTrue(top.size() <= 256);
+        Assertions.assertEquals(List.of(7, 13), List.copyOf(top.keySet()).subList(0, 2));
+        Assertions.assertTrue(top.get(7) >= 25_000);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.impl;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.example.Deadline;
+import com.example.LockRejectedException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LongEntityLockerTest {
+
+    @Test
+    public void testReentrantLocking() throws Exception {
+        LongEntityLocker locker = new LongEntityLocker();
+        long result = locker.executeWithLock(1L, () -> locker.executeWithLock(1L, () -> 2L) + 1);
+        Assertions.assertEquals(3L, result);
+    }
+
+    @Test
+    public void testTimeoutWhenNoFreeSlot() throws Exception {
+        LongEntityLocker locker = new LongEntityLocker(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 1);
+        locker.executeWithLock(1L, () -> {
+            assertThrows(TimeoutException.class,
+                () -> locker.executeWithLock(2L, () -> {}, 10, TimeUnit.MILLISECONDS));
+        });
+        locker.executeWithLock(2L, () -> {}, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testDeadlineBoundsPrimitiveLocking() throws Exception {
+        LongEntityLocker locker = new LongEntityLocker(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 2);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        try {
+            executor.submit(() -> locker.executeWithLock(1L, () -> {
+                locked.countDown();
+                released.await();
+                return null;
+            }));
+            locked.await();
+            try (Deadline.Scope ignored = Deadline.after(50, TimeUnit.MILLISECONDS).enter()) {
+                assertThrows(TimeoutException.class, () -> locker.executeWithLock(1L, () -> {}));
+            }
+            locker.executeWithLock(2L, () -> {
+                // waiting for a free slot of the crowded table is bounded too
+                try (Deadline.Scope ignored = Deadline.after(50, TimeUnit.MILLISECONDS).enter()) {
+                    assertThrows(TimeoutException.class, () -> locker.acquire(3L));
+                }
+            });
+        } finally {
+            released.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMutualExclusionWithSlotReuse() throws Exception {
+        LongEntityLocker locker = new LongEntityLocker(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 4);
+        int threads = 8;
+        int iterations = 10_000;
+        int[] counters = new int[16];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < iterations; i++) {
+                        int idx = i % counters.length;
+                        locker.executeWithLock((long) idx, () -> {
+                            counters[idx]++;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int counter : counters) {
+            Assertions.assertEquals(threads * iterations / counters.length, counter);
+        }
+    }
+
+    @Test
+    public void testThreadHoldingSlotsDoesNotWaitForFreeSlot() throws Exception {
+        LongEntityLocker locker = new LongEntityLocker(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 1);
+        // with the default infinite timeout this would wait for its own slot forever
+        locker.executeWithLock(1L, () -> {
+            assertThrows(TimeoutException.class, () -> locker.executeWithLock(2L, () -> {}));
+        });
+        locker.executeWithLock(2L, () -> {});
+    }
+
+    @Test
+    public void testMoreEntitiesThanProbeWindowAreRejected() throws Exception {
+        LongEntityLocker locker = new LongEntityLocker(1, TimeUnit.SECONDS, 16);
+        List<Long> ids = new ArrayList<>();
+        for (long id = 0; id <= 16; id++) {
+            ids.add(id);
+        }
+        assertThrows(LockRejectedException.class, () -> locker.executeWithLocks(ids, () -> null));
+        Assertions.assertEquals(17, (int) locker.executeWithLocks(ids.subList(0, 16), ids::size));
+    }
+
+    @Test
+    public void testNestedLockingOfReusedSlot() throws Exception {
+        LongEntityLocker locker = new LongEntityLocker(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 1);
+        locker.executeWithLock(1L, () -> {});
+        // the only slot is bound to another entity now, remembered lock of the first one must not be reentered
+        boolean nested = locker.executeWithLocks(List.of(2L), () -> locker.tryExecuteWithLock(1L, () -> {}, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(nested);
+    }
+}
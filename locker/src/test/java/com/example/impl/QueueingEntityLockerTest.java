@@ -0,0 +1,156 @@
+package com.example.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.example.Deadline;
+import com.example.ExecutionException;
+import com.example.LockTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class QueueingEntityLockerTest {
+    private final QueueingEntityLocker<String> testObj = new QueueingEntityLocker<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTasksOnSameEntityDontOverlap() throws Exception {
+        AtomicBoolean inside = new AtomicBoolean();
+        int[] counter = new int[1];
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(testObj.executeWithLockAsync("1", () -> {
+                boolean exclusive = inside.compareAndSet(false, true);
+                counter[0]++;
+                inside.set(false);
+                return exclusive;
+            }, executor));
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            Assertions.assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(1000, counter[0]);
+        Assertions.assertEquals(0, testObj.busyEntities());
+    }
+
+    @Test
+    public void testTimeoutWhileEntityIsBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> holder = testObj.executeWithLockAsync("1", () -> release.await(5, TimeUnit.SECONDS), executor);
+        CompletableFuture<String> waiter = testObj.executeWithLockAsync("1", () -> "run", executor, 20, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> other = testObj.executeWithLockAsync("2", () -> "other", executor, 20, TimeUnit.MILLISECONDS);
+
+        java.util.concurrent.ExecutionException failure = Assertions.assertThrows(java.util.concurrent.ExecutionException.class,
+                () -> waiter.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(failure.getCause() instanceof LockTimeoutException);
+        Assertions.assertEquals("other", other.get(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        Assertions.assertTrue(holder.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("next", testObj.executeWithLockAsync("1", () -> "next", executor).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, testObj.busyEntities());
+    }
+
+    @Test
+    public void testExceptionInProtectedCode() throws Exception {
+        CompletableFuture<Object> future = testObj.executeWithLockAsync("1", () -> {
+            throw new IllegalStateException();
+        }, executor);
+
+        java.util.concurrent.ExecutionException failure = Assertions.assertThrows(java.util.concurrent.ExecutionException.class,
+                () -> future.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(failure.getCause() instanceof ExecutionException);
+        Assertions.assertTrue(failure.getCause().getCause() instanceof IllegalStateException);
+        Assertions.assertEquals(0, testObj.busyEntities());
+    }
+
+    @Test
+    public void testDeadlinePropagatesToProtectedCode() throws Exception {
+        try (Deadline.Scope ignored = Deadline.after(1, TimeUnit.MINUTES).enter()) {
+            Assertions.assertNotNull(testObj.executeWithLockAsync("1", Deadline::current, executor).get(5, TimeUnit.SECONDS));
+        }
+        try (Deadline.Scope ignored = Deadline.after(0, TimeUnit.MILLISECONDS).enter()) {
+            CompletableFuture<Integer> expired = testObj.executeWithLockAsync("1", () -> 1, executor);
+            java.util.concurrent.ExecutionException ex = Assertions.assertThrows(java.util.concurrent.ExecutionException.class,
+                () -> expired.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(ex.getCause() instanceof LockTimeoutException);
+        }
+        Assertions.assertEquals(0, testObj.busyEntities());
+    }
+
+    @Test
+    public void testSameThreadExecutorDoesNotNestHandOvers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> holder = testObj.executeWithLockAsync("1", () -> release.await(5, TimeUnit.SECONDS), executor);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            CompletableFuture<Boolean> previous = i == 0 ? holder : futures.get(i - 1);
+            futures.add(testObj.executeWithLockAsync("1", previous::isDone, Runnable::run));
+        }
+        release.countDown();
+        Assertions.assertTrue(holder.get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<Boolean> future : futures) {
+            // completed before the next task started
+            Assertions.assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(0, testObj.busyEntities());
+    }
+
+    @Test
+    public void testDispatchedTasksCancelTheirTimeouts() throws Exception {
+        TimerWheel timer = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 64);
+        QueueingEntityLocker<String> locker = new QueueingEntityLocker<>(1, TimeUnit.MINUTES, timer);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> holder = locker.executeWithLockAsync("1", () -> release.await(5, TimeUnit.SECONDS), executor);
+        List<CompletableFuture<Integer>> waiters = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            waiters.add(locker.executeWithLockAsync("1", () -> value, executor));
+        }
+        Assertions.assertEquals(100, timer.pending());
+
+        release.countDown();
+        Assertions.assertTrue(holder.get(5, TimeUnit.SECONDS));
+        for (int i = 0; i < waiters.size(); i++) {
+            Assertions.assertEquals(i, waiters.get(i).get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(0, timer.pending());
+        Assertions.assertEquals(0, locker.busyEntities());
+    }
+
+    @Test
+    public void testIdleTimerParksUntilScheduled() throws Exception {
+        TimerWheel timer = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 64);
+        QueueingEntityLocker<String> locker = new QueueingEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, timer);
+        for (int round = 0; round < 2; round++) {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Boolean> holder = locker.executeWithLockAsync("1", () -> release.await(5, TimeUnit.SECONDS), executor);
+            CompletableFuture<String> waiter = locker.executeWithLockAsync("1", () -> "run", executor, 20, TimeUnit.MILLISECONDS);
+            java.util.concurrent.ExecutionException failure = Assertions.assertThrows(java.util.concurrent.ExecutionException.class,
+                    () -> waiter.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(failure.getCause() instanceof LockTimeoutException);
+            release.countDown();
+            Assertions.assertTrue(holder.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(0, timer.pending());
+            // a ticking timer would be timed waiting instead
+            Thread worker = timer.worker();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (worker.getState() != Thread.State.WAITING && System.nanoTime() - end < 0) {
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(Thread.State.WAITING, worker.getState());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.impl;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockRejectedException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ReclaimingSimpleEntityLockerTest extends EntityLockerTest {
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 4);
+    }
+
+    @Test
+    public void testLocksAreReclaimed() throws Exception {
+        SimpleEntityLocker<String> locker = (SimpleEntityLocker<String>) testObj;
+        for (int i = 0; i < 1000; i++) {
+            locker.executeWithLock(String.valueOf(i), () -> {});
+        }
+        Assertions.assertEquals(0, locker.liveLocks());
+    }
+
+    @Test
+    public void testLiveLocksCeiling() throws Exception {
+        SimpleEntityLocker<String> locker = new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 1);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                locker.executeWithLock("1", () -> {
+                    locked.countDown();
+                    done.await();
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        holder.start();
+        locked.await();
+        assertThrows(TimeoutException.class,
+            () -> locker.executeWithLock("2", () -> {}, 10, TimeUnit.MILLISECONDS));
+        done.countDown();
+        holder.join();
+        locker.executeWithLock("2", () -> {}, 10, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals(0, locker.liveLocks());
+    }
+
+    @Test
+    public void testThreadHoldingLocksDoesNotWaitForCeiling() throws Exception {
+        SimpleEntityLocker<String> locker = new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 2);
+        // with the default infinite timeout these would wait for their own locks forever
+        locker.executeWithLock("1", () -> locker.executeWithLock("2", () ->
+            assertThrows(TimeoutException.class, () -> locker.executeWithLock("3", () -> {}))));
+        assertThrows(LockRejectedException.class, () -> locker.executeWithLocks(List.of("1", "2", "3"), () -> null));
+        Assertions.assertEquals(0, locker.liveLocks());
+        locker.executeWithLocks(List.of("1", "2"), () -> null);
+    }
+
+    @Test
+    public void testMultipleEntitiesOfFullTableDontWaitForEachOther() throws Exception {
+        SimpleEntityLocker<String> locker = new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 2);
+        List<List<String>> pairs = List.of(List.of("1", "2"), List.of("2", "3"), List.of("3", "1"));
+        ExecutorService executor = Executors.newFixedThreadPool(pairs.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<String> ids : pairs) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        locker.executeWithLocks(ids, () -> null);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(0, locker.liveLocks());
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockWrapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RefCountingEntityLockerTest extends EntityLockerTest {
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return new RefCountingEntityLocker<>();
+    }
+
+    @Test
+    public void testTableKeepsOnlyLocksInUse() throws Exception {
+        RefCountedLockTable<String> table = new RefCountedLockTable<>();
+        LockWrapper outer = table.retain("1");
+        LockWrapper inner = table.retain("1");
+        Assertions.assertSame(outer, inner);
+        Assertions.assertTrue(outer.tryLock(0, TimeUnit.MILLISECONDS));
+        outer.unlock();
+        inner.release();
+        Assertions.assertEquals(1, table.size());
+        outer.release();
+        Assertions.assertEquals(0, table.size());
+        Assertions.assertNotSame(outer, table.retain("1"));
+    }
+}
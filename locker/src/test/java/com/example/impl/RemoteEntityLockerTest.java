@@ -0,0 +1,186 @@
+package com.example.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockHandle;
+import com.example.LockTimeoutException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RemoteEntityLockerTest extends EntityLockerTest {
+    private static final LockServer server = startServer(10, TimeUnit.SECONDS);
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return connect(server);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        ((RemoteEntityLocker<String>) testObj).close();
+    }
+
+    @AfterAll
+    public static void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testClientsExcludeEachOther() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (RemoteEntityLocker<String> other = connect(server)) {
+            CountDownLatch locked = new CountDownLatch(1);
+            CountDownLatch released = new CountDownLatch(1);
+            Future<?> holder = executor.submit(() -> testObj.executeWithLock("1", () -> {
+                locked.countDown();
+                released.await();
+                return null;
+            }));
+            locked.await();
+            Assertions.assertFalse(other.tryExecuteWithLock("1", () -> {}, 10, TimeUnit.MILLISECONDS));
+            Assertions.assertThrows(LockTimeoutException.class, () -> other.executeWithLocks(List.of("2", "1"), () -> null, 10, TimeUnit.MILLISECONDS));
+            released.countDown();
+            holder.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, other.executeWithLocks(List.of("2", "1"), () -> 1, 1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimedWaitsGrantedBeforeDeadline() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (RemoteEntityLocker<String> other = connect(server)) {
+            int[] counter = new int[1];
+            List<Future<?>> futures = new ArrayList<>();
+            for (EntityLocker<String> locker : List.of(testObj, other)) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        locker.executeWithLock("1", () -> counter[0]++, 1, TimeUnit.MINUTES);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            Assertions.assertEquals(1000, counter[0]);
+            // waits granted long before their deadlines don't delay expiry of later ones
+            try (LockHandle ignored = testObj.acquire("1")) {
+                long start = System.nanoTime();
+                Assertions.assertFalse(other.tryExecuteWithLock("1", () -> {}, 20, TimeUnit.MILLISECONDS));
+                Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLocksOfClosedClientAreReleased() throws Exception {
+        RemoteEntityLocker<String> other = connect(server);
+        other.acquire("1", 1, TimeUnit.SECONDS);
+        Assertions.assertFalse(testObj.tryExecuteWithLock("1", () -> {}, 0, TimeUnit.SECONDS));
+        other.close();
+        Assertions.assertTrue(testObj.tryExecuteWithLock("1", () -> {}, 1, TimeUnit.SECONDS));
+        Assertions.assertThrows(UncheckedIOException.class, () -> other.tryAcquire("2", 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLeaseOfSilentClientExpires() throws Exception {
+        try (LockServer leasing = startServer(200, TimeUnit.MILLISECONDS);
+             RemoteEntityLocker<String> locker = connect(leasing);
+             SocketChannel silent = SocketChannel.open(leasing.getAddress())) {
+            silent.write(LockProtocol.acquire(1, false, LockProtocol.NO_TIMEOUT, new byte[][]{LockProtocol.encode("1")}));
+            ByteBuffer answers = ByteBuffer.allocate(2 * LockProtocol.HEADER_SIZE);
+            while (answers.hasRemaining()) {
+                silent.read(answers);
+            }
+            // hello, then the grant
+            Assertions.assertEquals(LockProtocol.GRANTED, answers.get(LockProtocol.HEADER_SIZE + Integer.BYTES));
+            Assertions.assertFalse(locker.tryExecuteWithLock("1", () -> {}, 0, TimeUnit.SECONDS));
+            // the locker renews its own lease while waiting for the silent one to expire
+            Assertions.assertTrue(locker.tryExecuteWithLock("1", () -> {}, 5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testMalformedFrameClosesOnlyItsConnection() throws Exception {
+        testObj.acquire("2", 1, TimeUnit.SECONDS);
+        ByteBuffer negativeCount = LockProtocol.acquire(1, false, 0, new byte[0][]);
+        negativeCount.putInt(negativeCount.limit() - Integer.BYTES, -1);
+        ByteBuffer keyPastEnd = LockProtocol.acquire(1, false, 0, new byte[][]{LockProtocol.encode("1")});
+        keyPastEnd.putInt(keyPastEnd.limit() - 1 - Integer.BYTES, 100);
+        ByteBuffer shortFrame = LockProtocol.message(LockProtocol.ACQUIRE, 1);
+        for (ByteBuffer frame : List.of(negativeCount, keyPastEnd, shortFrame)) {
+            assertDisconnected(frame);
+        }
+        // the server still serves other clients and keeps their locks
+        Assertions.assertTrue(testObj.tryExecuteWithLock("1", () -> {}, 1, TimeUnit.SECONDS));
+        try (RemoteEntityLocker<String> other = connect(server)) {
+            Assertions.assertFalse(other.tryExecuteWithLock("2", () -> {}, 0, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testDuplicateIdClosesConnection() throws Exception {
+        ByteBuffer first = LockProtocol.acquire(1, false, LockProtocol.NO_TIMEOUT, new byte[][]{LockProtocol.encode("1")});
+        ByteBuffer duplicate = LockProtocol.acquire(1, false, LockProtocol.NO_TIMEOUT, new byte[][]{LockProtocol.encode("2")});
+        ByteBuffer frames = ByteBuffer.allocate(first.remaining() + duplicate.remaining()).put(first).put(duplicate).flip();
+        assertDisconnected(frames);
+        // the lock granted to the first acquire is released with the connection
+        Assertions.assertTrue(testObj.tryExecuteWithLock("1", () -> {}, 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNestedLockingDoesNotWaitForItself() throws Exception {
+        Assertions.assertEquals(1, testObj.executeWithLock("1", () ->
+            testObj.executeWithLocks(List.of("1", "2"), () ->
+                testObj.executeWithReadLock("2", () -> 1, 0, TimeUnit.SECONDS), 1, TimeUnit.SECONDS), 1, TimeUnit.SECONDS));
+    }
+
+    private static void assertDisconnected(ByteBuffer frames) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+            channel.socket().setSoTimeout(5000);
+            channel.write(frames);
+            byte[] answers = new byte[256];
+            int read;
+            do {
+                // hello and answers of valid frames come before the connection is closed
+                read = channel.socket().getInputStream().read(answers);
+            } while (read >= 0);
+        }
+    }
+
+    private static LockServer startServer(long leaseTimeout, TimeUnit timeUnit) {
+        try {
+            return new LockServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), leaseTimeout, timeUnit);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static RemoteEntityLocker<String> connect(LockServer server) {
+        try {
+            return new RemoteEntityLocker<>(server.getAddress());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.ExecutionException;
+import com.example.LockTimeoutException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SharedMemoryEntityLockerTest extends EntityLockerTest {
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        try {
+            return new SharedMemoryEntityLocker<>(tableFile());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Test
+    public void testLockersOfSameFileExcludeEachOther() throws Exception {
+        Path file = tableFile();
+        SharedMemoryEntityLocker<String> first = new SharedMemoryEntityLocker<>(file);
+        SharedMemoryEntityLocker<String> second = new SharedMemoryEntityLocker<>(file);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch locked = new CountDownLatch(1);
+            CountDownLatch released = new CountDownLatch(1);
+            Future<?> holder = executor.submit(() -> first.executeWithLock("1", () -> {
+                locked.countDown();
+                released.await();
+                return null;
+            }));
+            locked.await();
+            Assertions.assertFalse(second.tryExecuteWithLock("1", () -> {}, 10, TimeUnit.MILLISECONDS));
+            Assertions.assertThrows(LockTimeoutException.class, () -> second.executeWithLocks(List.of("2", "1"), () -> null, 10, TimeUnit.MILLISECONDS));
+            released.countDown();
+            holder.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, second.executeWithLocks(List.of("2", "1"), () -> 1, 1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMultipleEntitiesSharingSlots() throws Exception {
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+            () -> testObj.executeWithLocks(List.of("1", "2"), () -> {
+                throw new TimeoutException();
+            }));
+        // thrown by protected code, not by locking
+        Assertions.assertTrue(failure.getCause() instanceof TimeoutException);
+        Assertions.assertEquals(1, testObj.executeWithLocks(List.of("1", "1", "1"), () -> 1, 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRecoversSlotOfDeadProcess() throws Exception {
+        Path file = tableFile();
+        SharedMemoryEntityLocker<String> locker = new SharedMemoryEntityLocker<>(file, 1, 1, TimeUnit.SECONDS);
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-version")
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        process.waitFor();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            table.order(ByteOrder.nativeOrder());
+            // the only slot is held by the exited process
+            table.putLong(64, process.pid() << 32 | 1);
+            table.putLong(72, 1);
+        }
+        Assertions.assertEquals(1, locker.executeWithLock("1", () -> 1));
+        Assertions.assertEquals(1, locker.getRecoveredCount());
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            table.order(ByteOrder.nativeOrder());
+            // readers of the exited process are left in a reader lane
+            table.putLong(80, process.pid() << 32 | 2);
+        }
+        Assertions.assertEquals(2, locker.executeWithReadLock("1", () -> 2));
+        Assertions.assertEquals(3, locker.executeWithLock("1", () -> 3));
+        Assertions.assertEquals(2, locker.getRecoveredCount());
+        Assertions.assertTrue(locker.tryExecuteWithLock("2", () -> {}, 0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInvalidTable() throws Exception {
+        Path file = tableFile();
+        new SharedMemoryEntityLocker<String>(file, 16, 1, TimeUnit.SECONDS);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SharedMemoryEntityLocker<String>(file, 32, 1, TimeUnit.SECONDS));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SharedMemoryEntityLocker<String>(file, 0, 1, TimeUnit.SECONDS));
+    }
+
+    private static Path tableFile() throws IOException {
+        Path file = Files.createTempFile("locks", ".table");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.ExecutionException;
+import com.example.LockHandle;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SimpleEntityLockerTest extends EntityLockerTest {
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return new SimpleEntityLocker<>();
+    }
+
+    @Test
+    public void testUncontendedPathDoesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int[] counter = new int[1];
+        Function<int[], int[]> increment = c -> {
+            c[0]++;
+            return c;
+        };
+        for (int i = 0; i < 10_000; i++) {
+            lockUnlock(counter, increment);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10_000; i++) {
+            lockUnlock(counter, increment);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        // allocations of the measurement itself only
+        Assertions.assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        Path dump = Files.createTempFile("entity-locker", ".jfr");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Recording recording = new Recording()) {
+            recording.enable("com.example.EntityLockWait").withThreshold(Duration.ZERO);
+            recording.enable("com.example.EntityLockHold").withThreshold(Duration.ZERO);
+            recording.start();
+            try (LockHandle ignored = testObj.acquire("busy")) {
+                Assertions.assertFalse(executor.submit(() -> testObj.tryExecuteWithLock("busy", () -> {}, 10, TimeUnit.MILLISECONDS)).get());
+            }
+            recording.stop();
+            recording.dump(dump);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+                .filter(event -> event.getEventType().getName().startsWith("com.example."))
+                .collect(Collectors.toList());
+
+            Assertions.assertEquals(2, events.size());
+            RecordedEvent wait = events.stream().filter(event -> event.getEventType().getName().endsWith("Wait")).findFirst().get();
+            Assertions.assertEquals("busy", wait.getString("entity"));
+            Assertions.assertEquals(Duration.ofMillis(10), wait.getDuration("timeout"));
+            Assertions.assertFalse(wait.getBoolean("acquired"));
+            Assertions.assertFalse(wait.getBoolean("shared"));
+            RecordedEvent hold = events.stream().filter(event -> event.getEventType().getName().endsWith("Hold")).findFirst().get();
+            Assertions.assertEquals("busy", hold.getString("entity"));
+            Assertions.assertTrue(hold.getDuration().compareTo(wait.getDuration()) >= 0);
+        } finally {
+            executor.shutdown();
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testNestedReadLockDoesNotWaitForQueuedWriter() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            int result = testObj.executeWithReadLock("1", () -> {
+                Future<?> writer = executor.submit(() -> testObj.executeWithLock("1", () -> 1));
+                // let the writer queue up behind the read lock
+                Thread.sleep(50);
+                Assertions.assertFalse(writer.isDone());
+                return testObj.executeWithReadLock("1", () -> 1, 1, TimeUnit.SECONDS);
+            });
+            Assertions.assertEquals(1, result);
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMultipleEntitiesOfMixedTypes() throws Exception {
+        SimpleEntityLocker<Object> locker = new SimpleEntityLocker<>();
+        // not mutually comparable, or equal by compareTo only
+        Assertions.assertEquals(1, locker.executeWithLocks(List.of(1, "1", 2L), () -> 1));
+        Assertions.assertEquals(1, locker.executeWithLocks(List.of(new BigDecimal("1.0"), new BigDecimal("1.00")), () -> 1));
+    }
+
+    @Test
+    public void testCombinedCodeMustNotLockEntities() throws Exception {
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+            () -> testObj.executeCombined("1", () -> testObj.executeWithLock("2", () -> 1)));
+        Assertions.assertTrue(failure.getCause() instanceof IllegalStateException);
+        Assertions.assertThrows(ExecutionException.class,
+            () -> testObj.executeCombined("1", () -> testObj.executeWithLocks(List.of("2", "3"), () -> 1)));
+
+        // combined code may be called holding locks, and locking works again after it
+        Assertions.assertEquals(1, testObj.executeWithLock("2", () -> testObj.executeCombined("1", () -> 1)));
+        Assertions.assertEquals(1, testObj.executeWithLock("2", () -> testObj.executeWithLock("1", () -> 1)));
+    }
+
+    @Test
+    public void testUnlockedEntitiesAreNotKeptReachable() throws Exception {
+        WeakReference<Object> released = lockNested(new SimpleEntityLocker<>());
+        for (int i = 0; i < 50 && released.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(released.get());
+    }
+
+    private static WeakReference<Object> lockNested(EntityLocker<Object> locker) throws Exception {
+        Object id = new Object();
+        locker.executeWithLock(id, () -> locker.executeWithLock(id, () -> 1));
+        return new WeakReference<>(id);
+    }
+
+    private void lockUnlock(int[] counter, Function<int[], int[]> increment) throws Exception {
+        testObj.executeWithLock("1", counter, increment);
+        try (LockHandle ignored = testObj.acquire("1")) {
+            counter[0]++;
+        }
+    }
+}
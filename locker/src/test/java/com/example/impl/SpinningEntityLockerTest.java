@@ -0,0 +1,33 @@
+package com.example.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.example.AcquisitionPolicy;
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockWrapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SpinningEntityLockerTest extends EntityLockerTest {
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return new RefCountingEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, AcquisitionPolicy.SPIN_THEN_PARK);
+    }
+
+    @Test
+    public void testSpinLockIsReentrant() throws Exception {
+        LockWrapper lock = new LockWrapper();
+        Assertions.assertTrue(lock.trySpinLock(false));
+        Assertions.assertTrue(lock.trySpinLock(false));
+        long stamp = lock.tryOptimisticRead();
+        Assertions.assertEquals(0, stamp);
+        lock.unlock();
+        lock.unlock();
+        Assertions.assertTrue(lock.trySpinLock(true));
+        Assertions.assertFalse(lock.tryLock(0, TimeUnit.MILLISECONDS));
+        lock.readUnlock();
+        Assertions.assertNotEquals(0, lock.tryOptimisticRead());
+    }
+}
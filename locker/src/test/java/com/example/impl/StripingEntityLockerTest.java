@@ -0,0 +1,76 @@
+package com.example.impl;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.EntityLocker;
+import com.example.EntityLockerTest;
+import com.example.LockHandle;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StripingEntityLockerTest extends EntityLockerTest {
+
+    @Override
+    protected EntityLocker<String> createLocker() {
+        return new StripingEntityLocker<>();
+    }
+
+    @Test
+    public void testNegativeHashCodes() throws Exception {
+        StripingEntityLocker<Integer> locker = new StripingEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 3);
+        Assertions.assertEquals(4, locker.stripeCount());
+        int[] counter = new int[1];
+        locker.executeWithLock(-1, () -> counter[0]++);
+        locker.executeWithLock(Integer.MIN_VALUE, () -> counter[0]++);
+        locker.executeWithLocks(List.of(-7, 7, Integer.MIN_VALUE), () -> counter[0]++);
+        Assertions.assertEquals(3, counter[0]);
+    }
+
+    @Test
+    public void testResizeKeepsInFlightLocks() throws Exception {
+        StripingEntityLocker<String> locker = new StripingEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger[] inside = new AtomicInteger[8];
+        for (int i = 0; i < inside.length; i++) {
+            inside[i] = new AtomicInteger();
+        }
+        try {
+            LockHandle held = locker.acquire("held");
+            Future<?>[] workers = new Future<?>[4];
+            for (int w = 0; w < workers.length; w++) {
+                workers[w] = executor.submit(() -> {
+                    for (int i = 0; !stop.get(); i++) {
+                        AtomicInteger key = inside[i % inside.length];
+                        locker.executeWithLock("key" + (i % inside.length), () -> {
+                            Assertions.assertEquals(1, key.incrementAndGet());
+                            key.decrementAndGet();
+                        });
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < 6; i++) {
+                locker.resize();
+                Thread.sleep(5);
+            }
+            Assertions.assertEquals(64, locker.stripeCount());
+            // the lock taken before resizing is released through the new stripes
+            Assertions.assertFalse(executor.submit(() -> locker.tryExecuteWithLock("held", () -> {}, 0, TimeUnit.MILLISECONDS)).get());
+            held.close();
+            Assertions.assertTrue(locker.tryExecuteWithLock("held", () -> {}, 0, TimeUnit.MILLISECONDS));
+            stop.set(true);
+            for (Future<?> worker : workers) {
+                worker.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
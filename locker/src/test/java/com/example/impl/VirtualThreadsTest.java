@@ -0,0 +1,91 @@
+package com.example.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.EntityLocker;
+import com.example.LockHandle;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * 100k virtual threads contending on a few thousand entities must neither pin their carriers
+ * (no {@code jdk.VirtualThreadPinned} events) nor exhaust them (everything completes).
+ * Skipped below Java 21.
+ */
+public class VirtualThreadsTest {
+    private static final int THREADS = 100_000;
+    private static final int ENTITIES = 2000;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"simple", "reclaiming", "striping", "refCounting", "long"})
+    public void testNoPinningUnderContention(String implementation) throws Exception {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        EntityLocker<Long> locker = create(implementation);
+        long[] counters = new long[ENTITIES];
+        AtomicLong failures = new AtomicLong();
+        Path dump = Files.createTempFile("virtual-threads", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+            recording.start();
+            for (int i = 0; i < THREADS; i++) {
+                long id = i % ENTITIES;
+                executor.execute(() -> {
+                    try {
+                        // nested lock checks that reentrancy is tracked per virtual thread
+                        try (LockHandle outer = locker.acquire(id); LockHandle inner = locker.acquire(id)) {
+                            counters[(int) id]++;
+                            Thread.yield();
+                        }
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                    }
+                });
+            }
+            executor.shutdown();
+            Assertions.assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES), "carriers are exhausted");
+            recording.stop();
+            recording.dump(dump);
+            Assertions.assertEquals(0, RecordingFile.readAllEvents(dump).size(), "carriers are pinned");
+        } finally {
+            Files.delete(dump);
+        }
+        Assertions.assertEquals(0, failures.get());
+        for (long counter : counters) {
+            Assertions.assertEquals(THREADS / ENTITIES, counter);
+        }
+    }
+
+    private static EntityLocker<Long> create(String implementation) {
+        switch (implementation) {
+            case "simple":
+                return new SimpleEntityLocker<>();
+            case "reclaiming":
+                return new SimpleEntityLocker<>(Long.MAX_VALUE, TimeUnit.MILLISECONDS, ENTITIES);
+            case "striping":
+                return new StripingEntityLocker<>();
+            case "refCounting":
+                return new RefCountingEntityLocker<>();
+            default:
+                return new LongEntityLocker(Long.MAX_VALUE, TimeUnit.MILLISECONDS, 4 * ENTITIES);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException ex) {
+            Assumptions.assumeTrue(false, "virtual threads require Java 21");
+            throw ex;
+        }
+    }
+}
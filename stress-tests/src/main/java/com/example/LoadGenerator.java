@@ -0,0 +1,244 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.example.impl.LatencyHistogram;
+import com.example.impl.RefCountingEntityLocker;
+import com.example.impl.SimpleEntityLocker;
+import com.example.impl.StripingEntityLocker;
+
+/**
+ * Drives a locker with many threads over a skewed key space and reports acquire latency percentiles and throughput
+ * as a single JSON object, so runs of different implementations and versions can be compared.
+ * <p>
+ * Usage: {@code java -cp stress-tests.jar com.example.LoadGenerator [--option=value]...}, or
+ * {@link #run(EntityLocker, String...)} to drive a locker built in code. Options:
+ * <ul>
+ *     <li>{@code locker}: simple, striping, ref-counting, or name of a class on the class path with a public
+ *     no-arg constructor which is either an {@code EntityLocker<Long>} or a {@code Supplier} of one,
+ *     e.g. to decorate a locker, striping by default</li>
+ *     <li>{@code threads}: number of threads, twice the number of processors by default</li>
+ *     <li>{@code keys}: number of distinct entities, 100000 by default</li>
+ *     <li>{@code distribution}: uniform, zipfian or hotspot, zipfian by default</li>
+ *     <li>{@code theta}: skew of zipfian distribution, 0.99 by default</li>
+ *     <li>{@code hot-keys}, {@code hot-share}: fraction of keys getting given share of operations
+ *     in hotspot distribution, 0.01 and 0.9 by default</li>
+ *     <li>{@code timeouts}: mix of lock timeouts as {@code millis:weight,...} where {@code none} waits
+ *     without timeout, {@code none:1} by default</li>
+ *     <li>{@code work-ns}: length of critical section in nanoseconds, 1000 by default</li>
+ *     <li>{@code warmup-s}, {@code duration-s}: length of warmup and measurement, 5 and 20 seconds by default</li>
+ *     <li>{@code seed}: random seed, 42 by default</li>
+ * </ul>
+ * Acquire latency is the time from the call to the start of the critical section, timed out calls are counted apart.
+ */
+public final class LoadGenerator {
+    private static final long NO_TIMEOUT = -1;
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    private final EntityLocker<Long> locker;
+    private final String lockerName;
+    private final Map<String, String> options;
+    private final int keys;
+    private final long workNanos;
+    private final long[] timeouts;
+    private final int[] timeoutWeights;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean stopped;
+
+    private LoadGenerator(EntityLocker<Long> locker, String lockerName, Map<String, String> options) {
+        this.options = options;
+        this.locker = locker;
+        this.lockerName = lockerName;
+        this.keys = Integer.parseInt(option("keys", "100000"));
+        this.workNanos = Long.parseLong(option("work-ns", "1000"));
+        String[] mix = option("timeouts", "none:1").split(",");
+        this.timeouts = new long[mix.length];
+        this.timeoutWeights = new int[mix.length];
+        for (int i = 0; i < mix.length; i++) {
+            String[] parts = mix[i].split(":");
+            timeouts[i] = "none".equals(parts[0]) ? NO_TIMEOUT : TimeUnit.MILLISECONDS.toNanos(Long.parseLong(parts[0]));
+            timeoutWeights[i] = (i == 0 ? 0 : timeoutWeights[i - 1]) + (parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+        }
+        if (keys < 1 || workNanos < 0 || timeoutWeights[mix.length - 1] < 1) {
+            throw new IllegalArgumentException("keys, work and timeout weights should be positive");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        String name = options.getOrDefault("locker", "striping");
+        System.out.println(new LoadGenerator(createLocker(name), name, options).run());
+    }
+
+    /**
+     * Drive the given locker, option {@code locker} is ignored.
+     *
+     * @return results as a JSON object
+     */
+    public static String run(EntityLocker<Long> locker, String... args) throws InterruptedException {
+        return new LoadGenerator(locker, locker.getClass().getName(), parse(args)).run();
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("expected --option=value, got " + arg);
+            }
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+
+    private String run() throws InterruptedException {
+        int threads = Integer.parseInt(option("threads", String.valueOf(2 * Runtime.getRuntime().availableProcessors())));
+        long seed = Long.parseLong(option("seed", "42"));
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            KeyChooser chooser = keyChooser(seed + i);
+            SplittableRandom random = new SplittableRandom(seed - i);
+            Thread worker = new Thread(() -> work(chooser, random), "load-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(Long.parseLong(option("warmup-s", "5"))));
+        latency.reset();
+        timedOut.reset();
+        failed.reset();
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(Long.parseLong(option("duration-s", "20"))));
+        long acquired = latency.count();
+        long timeouts = timedOut.sum();
+        long failures = failed.sum();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return report(threads, acquired, timeouts, failures, seconds);
+    }
+
+    private void work(KeyChooser chooser, SplittableRandom random) {
+        while (!stopped) {
+            long id = chooser.next();
+            long timeout = timeout(random.nextInt(timeoutWeights[timeoutWeights.length - 1]));
+            long start = System.nanoTime();
+            Runnable criticalSection = () -> {
+                latency.record(System.nanoTime() - start);
+                spin(workNanos);
+            };
+            try {
+                if (timeout == NO_TIMEOUT) {
+                    locker.executeWithLock(id, criticalSection);
+                } else if (!locker.tryExecuteWithLock(id, criticalSection, timeout, TimeUnit.NANOSECONDS)) {
+                    timedOut.increment();
+                }
+            } catch (TimeoutException ex) {
+                timedOut.increment();
+            } catch (ExecutionException ex) {
+                failed.increment();
+            }
+        }
+    }
+
+    private long timeout(int weight) {
+        int i = 0;
+        while (weight >= timeoutWeights[i]) {
+            i++;
+        }
+        return timeouts[i];
+    }
+
+    private String report(int threads, long acquired, long timeouts, long failures, double seconds) {
+        StringBuilder json = new StringBuilder("{");
+        json.append(String.format(Locale.ROOT, "\"locker\":\"%s\",\"threads\":%d,\"keys\":%d,\"distribution\":\"%s\",",
+            lockerName, threads, keys, option("distribution", "zipfian")));
+        json.append(String.format(Locale.ROOT, "\"timeouts\":\"%s\",\"workNs\":%d,\"durationS\":%.3f,",
+            option("timeouts", "none:1"), workNanos, seconds));
+        json.append(String.format(Locale.ROOT, "\"acquired\":%d,\"timedOut\":%d,\"failed\":%d,\"throughputOpsPerS\":%.1f,",
+            acquired, timeouts, failures, acquired / seconds));
+        json.append("\"acquireLatencyNs\":{");
+        for (double percentile : PERCENTILES) {
+            json.append(String.format(Locale.ROOT, "\"p%s\":%d,", formatPercentile(percentile), latency.percentile(percentile)));
+        }
+        json.append(String.format(Locale.ROOT, "\"max\":%d,\"mean\":%.1f}}", latency.max(), latency.mean()));
+        return json.toString();
+    }
+
+    private KeyChooser keyChooser(long seed) {
+        String distribution = option("distribution", "zipfian");
+        switch (distribution) {
+            case "uniform": {
+                SplittableRandom random = new SplittableRandom(seed);
+                return () -> random.nextInt(keys);
+            }
+            case "zipfian": {
+                ZipfianGenerator generator = new ZipfianGenerator(keys, Double.parseDouble(option("theta", "0.99")), seed);
+                return generator::next;
+            }
+            case "hotspot": {
+                SplittableRandom random = new SplittableRandom(seed);
+                int hotKeys = Math.max((int) (keys * Double.parseDouble(option("hot-keys", "0.01"))), 1);
+                double hotShare = Double.parseDouble(option("hot-share", "0.9"));
+                return () -> hotKeys == keys || random.nextDouble() < hotShare
+                    ? random.nextInt(hotKeys)
+                    : hotKeys + random.nextInt(keys - hotKeys);
+            }
+            default:
+                throw new IllegalArgumentException("unknown distribution " + distribution);
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EntityLocker<Long> createLocker(String name) throws ReflectiveOperationException {
+        switch (name) {
+            case "simple":
+                return new SimpleEntityLocker<>();
+            case "striping":
+                return new StripingEntityLocker<>();
+            case "ref-counting":
+                return new RefCountingEntityLocker<>();
+            default:
+                Object created = Class.forName(name).getConstructor().newInstance();
+                if (created instanceof Supplier) {
+                    created = ((Supplier<?>) created).get();
+                }
+                if (!(created instanceof EntityLocker)) {
+                    throw new IllegalArgumentException(name + " is neither a locker nor a supplier of one");
+                }
+                return (EntityLocker<Long>) created;
+        }
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() - end < 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private interface KeyChooser {
+        long next();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example;
+
+import com.example.impl.RefCountingEntityLocker;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+@JCStressTest
+@Outcome(id = "2, 1", expect = Expect.ACCEPTABLE, desc = "OK, thread 2 was first")
+@Outcome(id = "1, 2", expect = Expect.ACCEPTABLE, desc = "OK, thread 1 was first")
+@State
+public class RefCountingLockerConcurrentTest {
+    private int x;
+    private final String id = "1";
+
+    private RefCountingEntityLocker<String> testObj = new RefCountingEntityLocker<>();
+
+    @Actor
+    public void actor1(II_Result r) {
+        Integer result;
+        try {
+            result = testObj.executeWithLock(id, () -> ++x);
+        } catch (Exception e) {
+            result = -1;
+        }
+        r.r1 = result;
+    }
+
+    @Actor
+    public void actor2(II_Result r) {
+        Integer result;
+        try {
+            result = testObj.executeWithLock(id, () -> ++x);
+        } catch (Exception e) {
+            result = -1;
+        }
+        r.r2 = result;
+    }
+}
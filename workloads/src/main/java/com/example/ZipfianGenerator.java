@@ -0,0 +1,57 @@
+package com.example;
+
+import java.util.Random;
+
+/**
+ * Zipfian distributed numbers in range [0, items), rank 0 being the most popular one.
+ * Uses the rejection-free algorithm from Gray et al. "Quickly Generating Billion-Record Synthetic Databases",
+ * the same one YCSB uses.
+ */
+public final class ZipfianGenerator {
+    public static final double DEFAULT_THETA = 0.99;
+
+    private final long items;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+    private final Random random;
+
+    public ZipfianGenerator(long items, long seed) {
+        this(items, DEFAULT_THETA, seed);
+    }
+
+    public ZipfianGenerator(long items, double theta, long seed) {
+        if (items < 1) {
+            throw new IllegalArgumentException("number of items should be greater than 0");
+        }
+        this.items = items;
+        this.theta = theta;
+        this.random = new Random(seed);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.zetaN = zeta(items, theta);
+        double zeta2 = zeta(Math.min(2, items), theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    public long next() {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return Math.min(1, items - 1);
+        }
+        long rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(rank, items - 1);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}